@@ -0,0 +1,322 @@
+/**
+ * This class implements an ordered dictionary using a red-black tree.
+ * It stores the same Pixel objects keyed by Location as BinarySearchTree, but
+ * rebalances itself after every put and remove so the height of the tree stays
+ * O(log n) no matter in which order the pixels are inserted.
+ * As in BinarySearchTree only the internal nodes store information and the
+ * leaves are the shared black node BinaryNode.LEAF. Since that node has no
+ * parent, the fixup after a removal keeps track of the parent itself.
+ *
+ * The parameter r of put and remove is the node where the search starts; since
+ * rotations can change the root, it should be the root of the tree.
+ */
+
+public class BalancedBinarySearchTree extends BinarySearchTree implements BinarySearchTreeADT {
+
+	/**
+	 * A constructor that creates a tree whose root is a leaf node
+	 */
+	public BalancedBinarySearchTree() {
+		super();
+	}
+
+	/**
+	 * Inserts the given data in the tree if no data item with the same key is
+	 * already there, then restores the red-black properties. If a node already
+	 * stores the same key, the algorithm throws a DuplicatedKeyException.
+	 *
+	 * @param r
+	 * 		the root of the tree
+	 * @param data
+	 * 		the pixel we want to add
+	 *
+	 * @throws
+	 * 		DuplicatedKeyException if a node already stores the same key
+	 */
+	public void put(BinaryNode r, Pixel data) throws DuplicatedKeyException {
+
+		//Link in the new node, throwing DuplicatedKeyException if the key is already there
+		BinaryNode currentNode = insertNode(r, data);
+
+		//New nodes are red, then fix any red node with a red parent
+		currentNode.setRed(true);
+		insertFixup(currentNode);
+	}
+
+	/**
+	 * Removes the data item with the given key, if the key is stored in the
+	 * tree, then restores the red-black properties. Throws an
+	 * InexistentKeyException otherwise.
+	 *
+	 * @param r
+	 * 		the root of the tree containing the data item
+	 * @param key
+	 * 		the key of the data item we want to remove
+	 *
+	 * @throws
+	 * 		InexistentKeyException if the key isn't in the tree
+	 */
+	public void remove(BinaryNode r, Location key) throws InexistentKeyException {
+
+		BinaryNode currentNode = getNode(r, key);
+
+		//Leaves don't store data, so there's nothing to remove
+		if (currentNode.isLeaf()) {
+			throw new InexistentKeyException();
+		}
+
+		//removed is the node that is taken out of the tree, child is the node that takes its place
+		BinaryNode removed = currentNode;
+		boolean removedRed = removed.isRed();
+		BinaryNode child;
+		BinaryNode childParent;
+
+		//Every node above the place where a node is taken out loses one node
+		if (currentNode.getLeft().isLeaf() || currentNode.getRight().isLeaf()) {
+			resize(currentNode.getParent(), -1);
+		}
+		else {
+			resize(smallestNode(currentNode.getRight()).getParent(), -1);
+		}
+
+		if (currentNode.getLeft().isLeaf()) {
+			child = currentNode.getRight();
+			childParent = currentNode.getParent();
+			replace(currentNode, child);
+		}
+		else if (currentNode.getRight().isLeaf()) {
+			child = currentNode.getLeft();
+			childParent = currentNode.getParent();
+			replace(currentNode, child);
+		}
+
+		//Case where the node to be removed has two internal children: its successor takes its place
+		else {
+			removed = smallestNode(currentNode.getRight());
+			removedRed = removed.isRed();
+			child = removed.getRight();
+
+			if (removed.getParent() == currentNode) {
+				childParent = removed;
+			}
+			else {
+				childParent = removed.getParent();
+				replace(removed, child);
+				removed.setRight(currentNode.getRight());
+				removed.getRight().setParent(removed);
+			}
+			replace(currentNode, removed);
+			removed.setLeft(currentNode.getLeft());
+			removed.getLeft().setParent(removed);
+			removed.setRed(currentNode.isRed());
+			removed.setSize(currentNode.getSize());
+		}
+
+		//Taking out a black node leaves one path short of a black node
+		if (!removedRed) {
+			removeFixup(child, childParent);
+		}
+	}
+
+	/**
+	 * Restores the red-black properties after node was inserted as a red node
+	 * @param node
+	 * 		the node that was just inserted
+	 */
+	private void insertFixup(BinaryNode node) {
+
+		while (node.getParent() != null && node.getParent().isRed()) {
+			BinaryNode parent = node.getParent();
+			BinaryNode grandparent = parent.getParent();
+
+			if (parent == grandparent.getLeft()) {
+				BinaryNode uncle = grandparent.getRight();
+
+				//Red uncle: push the blackness down from the grandparent and continue above
+				if (uncle.isRed()) {
+					parent.setRed(false);
+					uncle.setRed(false);
+					grandparent.setRed(true);
+					node = grandparent;
+				}
+				else {
+					//Inner child: rotate it to the outside first
+					if (node == parent.getRight()) {
+						node = parent;
+						rotateLeft(node);
+						parent = node.getParent();
+					}
+					parent.setRed(false);
+					grandparent.setRed(true);
+					rotateRight(grandparent);
+				}
+			}
+			else {
+				BinaryNode uncle = grandparent.getLeft();
+
+				if (uncle.isRed()) {
+					parent.setRed(false);
+					uncle.setRed(false);
+					grandparent.setRed(true);
+					node = grandparent;
+				}
+				else {
+					if (node == parent.getLeft()) {
+						node = parent;
+						rotateRight(node);
+						parent = node.getParent();
+					}
+					parent.setRed(false);
+					grandparent.setRed(true);
+					rotateLeft(grandparent);
+				}
+			}
+		}
+		getRoot().setRed(false);
+	}
+
+	/**
+	 * Restores the red-black properties after a black node was removed.
+	 * The parent is passed separately because node may be a leaf
+	 * @param node
+	 * 		the node that took the place of the removed node
+	 * @param parent
+	 * 		the parent of node
+	 */
+	private void removeFixup(BinaryNode node, BinaryNode parent) {
+
+		while (parent != null && !node.isRed()) {
+			if (node == parent.getLeft()) {
+				BinaryNode sibling = parent.getRight();
+
+				//Red sibling: rotate so that the sibling is black
+				if (sibling.isRed()) {
+					sibling.setRed(false);
+					parent.setRed(true);
+					rotateLeft(parent);
+					sibling = parent.getRight();
+				}
+
+				//Both nephews black: recolour the sibling and move the problem up
+				if (!sibling.getLeft().isRed() && !sibling.getRight().isRed()) {
+					sibling.setRed(true);
+					node = parent;
+					parent = node.getParent();
+				}
+				else {
+					if (!sibling.getRight().isRed()) {
+						sibling.getLeft().setRed(false);
+						sibling.setRed(true);
+						rotateRight(sibling);
+						sibling = parent.getRight();
+					}
+					sibling.setRed(parent.isRed());
+					parent.setRed(false);
+					sibling.getRight().setRed(false);
+					rotateLeft(parent);
+					node = getRoot();
+					parent = null;
+				}
+			}
+			else {
+				BinaryNode sibling = parent.getLeft();
+
+				if (sibling.isRed()) {
+					sibling.setRed(false);
+					parent.setRed(true);
+					rotateRight(parent);
+					sibling = parent.getLeft();
+				}
+
+				if (!sibling.getLeft().isRed() && !sibling.getRight().isRed()) {
+					sibling.setRed(true);
+					node = parent;
+					parent = node.getParent();
+				}
+				else {
+					if (!sibling.getLeft().isRed()) {
+						sibling.getRight().setRed(false);
+						sibling.setRed(true);
+						rotateLeft(sibling);
+						sibling = parent.getLeft();
+					}
+					sibling.setRed(parent.isRed());
+					parent.setRed(false);
+					sibling.getLeft().setRed(false);
+					rotateRight(parent);
+					node = getRoot();
+					parent = null;
+				}
+			}
+		}
+		if (!node.isLeaf()) {
+			node.setRed(false);
+		}
+	}
+
+	/**
+	 * Puts child in the place that node has in the tree
+	 * @param node
+	 * 		the node being taken out
+	 * @param child
+	 * 		the node replacing it
+	 */
+	private void replace(BinaryNode node, BinaryNode child) {
+		BinaryNode parent = node.getParent();
+
+		if (parent == null) {
+			setRoot(child);
+		}
+		else if (parent.getLeft() == node) {
+			parent.setLeft(child);
+		}
+		else {
+			parent.setRight(child);
+		}
+		if (!child.isLeaf()) {
+			child.setParent(parent);
+		}
+	}
+
+	/**
+	 * Rotates the tree to the left around node; its right child takes its place
+	 * @param node
+	 * 		the node to rotate around
+	 */
+	private void rotateLeft(BinaryNode node) {
+		BinaryNode child = node.getRight();
+
+		node.setRight(child.getLeft());
+		if (!child.getLeft().isLeaf()) {
+			child.getLeft().setParent(node);
+		}
+		replace(node, child);
+		child.setLeft(node);
+		node.setParent(child);
+
+		//The child now holds the whole subtree
+		child.setSize(node.getSize());
+		node.setSize(1 + node.getLeft().getSize() + node.getRight().getSize());
+	}
+
+	/**
+	 * Rotates the tree to the right around node; its left child takes its place
+	 * @param node
+	 * 		the node to rotate around
+	 */
+	private void rotateRight(BinaryNode node) {
+		BinaryNode child = node.getLeft();
+
+		node.setLeft(child.getRight());
+		if (!child.getRight().isLeaf()) {
+			child.getRight().setParent(node);
+		}
+		replace(node, child);
+		child.setRight(node);
+		node.setParent(child);
+
+		//The child now holds the whole subtree
+		child.setSize(node.getSize());
+		node.setSize(1 + node.getLeft().getSize() + node.getRight().getSize());
+	}
+}
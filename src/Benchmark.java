@@ -0,0 +1,979 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+/*
+ * Micro benchmarks for the pixel data structures. Run from the project
+ * directory (the scene benchmarks read the image files there):
+ *
+ *     java Benchmark lookup [maxPixels]
+ *     java Benchmark memory [sceneFile ...]
+ *     java Benchmark load [sceneFile ...]
+ *     java Benchmark frozen [maxPixels]
+ *     java Benchmark collisions [sceneFile]
+ *     java Benchmark cache [sceneFile]
+ *     java Benchmark contention [maxThreads]
+ *     java Benchmark broadphase [maxFigures] [density]
+ *     java Benchmark tick [figures]
+ *     java Benchmark assets [sceneFile ...]
+ *     java Benchmark loader [sceneFile ...]
+ *     java Benchmark bundle [figures]
+ *     java Benchmark lazy [figures]
+ *     java Benchmark parse [lines]
+ *
+ * Sizes of 10^7 pixels need a large heap, e.g. java -Xmx4g Benchmark lookup 10000000
+ */
+public class Benchmark {
+
+	private static final int ROUNDS = 5; // Measured rounds per data point
+	private static final int PROBES = 1 << 16; // Keys looked up per round
+	private static final int THRESHOLD = 225; // Same transparency threshold as Gui
+
+	private static final int SQUARE = 6; // Side of the figures of the synthetic scenes
+	private static final int OBSTACLE = 16 * SQUARE; // Side of the large obstacles of the mixed synthetic scenes
+
+	private static int storedPixels; // Pixels inserted by loadScene
+	private static long narrowTests; // Narrow phase tests done by the last microsPerMove
+
+	/* ====================================== */
+	public static void main(String[] args) {
+		/* ====================================== */
+		String which = args.length > 0 ? args[0] : "lookup";
+
+		if (which.equals("lookup"))
+			lookup(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+		else if (which.equals("memory"))
+			memory(args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"figs", "figs1"});
+		else if (which.equals("frozen"))
+			frozen(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+		else if (which.equals("collisions"))
+			collisions(args.length > 1 ? args[1] : "figs1");
+		else if (which.equals("cache"))
+			cache(args.length > 1 ? args[1] : "figs1");
+		else if (which.equals("contention"))
+			contention(args.length > 1 ? Integer.parseInt(args[1]) : 8);
+		else if (which.equals("broadphase"))
+			broadPhase(args.length > 1 ? Integer.parseInt(args[1]) : 100000,
+					args.length > 2 ? new double[] {Double.parseDouble(args[2])} : new double[] {0.01, 0.05, 0.2});
+		else if (which.equals("tick"))
+			tick(args.length > 1 ? Integer.parseInt(args[1]) : 20000);
+		else if (which.equals("assets"))
+			assets(args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"figs", "figs1"});
+		else if (which.equals("loader"))
+			loader(args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"figs", "figs1"});
+		else if (which.equals("bundle"))
+			bundle(args.length > 1 ? Integer.parseInt(args[1]) : 5000);
+		else if (which.equals("lazy"))
+			lazy(args.length > 1 ? Integer.parseInt(args[1]) : 5000);
+		else if (which.equals("parse"))
+			parse(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+		else if (which.equals("load"))
+			load(args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : new String[] {"figs", "figs1"});
+		else
+			System.out.println("Unknown benchmark " + which);
+	}
+
+	/* ====================================== */
+	private static void lookup(int maxPixels) {
+		/* ====================================== */
+		/* Lookup throughput of the iterative get against the former recursive one */
+		System.out.println("pixels       recursive (Mget/s)   iterative (Mget/s)");
+		for (int n = 10000; n <= maxPixels; n *= 10) {
+			BinarySearchTree tree = new BinarySearchTree();
+			insertBalanced(tree, 0, n - 1);
+
+			Random generator = new Random(n);
+			Location[] probes = new Location[PROBES];
+			for (int i = 0; i < PROBES; ++i)
+				probes[i] = key(generator.nextInt(n));
+
+			double recursive = 0, iterative = 0;
+			for (int round = 0; round < ROUNDS + 2; ++round) {
+				long sink = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < PROBES; ++i)
+					sink += recursiveGet(tree.getRoot(), probes[i]).getColor();
+				long middle = System.nanoTime();
+				for (int i = 0; i < PROBES; ++i)
+					sink += tree.get(tree.getRoot(), probes[i]).getColor();
+				long end = System.nanoTime();
+
+				if (round >= 2) { // First rounds are JIT warm up
+					recursive = Math.max(recursive, PROBES * 1000.0 / (middle - start));
+					iterative = Math.max(iterative, PROBES * 1000.0 / (end - middle));
+				}
+				if (sink == 42) System.out.print("");
+			}
+			System.out.printf("%-12d %-20.2f %-20.2f%n", n, recursive, iterative);
+		}
+	}
+
+	/* ====================================== */
+	private static void frozen(int maxPixels) {
+		/* ====================================== */
+		/* Lookup throughput of the frozen Eytzinger layout against the pointer tree */
+		System.out.println("pixels       tree (Mget/s)   frozen (Mget/s)   speedup");
+		for (int n = 10000; n <= maxPixels; n *= 10) {
+			BinarySearchTree tree = new BinarySearchTree();
+			insertBalanced(tree, 0, n - 1);
+			FrozenPixelTree frozen = tree.freeze();
+
+			// Half of the probes miss, as most probes of a collision test do
+			Random generator = new Random(n);
+			Location[] probes = new Location[PROBES];
+			for (int i = 0; i < PROBES; ++i)
+				probes[i] = key(generator.nextInt(2 * n));
+
+			double pointers = 0, eytzinger = 0;
+			for (int round = 0; round < ROUNDS + 2; ++round) {
+				long sink = 0;
+				long start = System.nanoTime();
+				for (int i = 0; i < PROBES; ++i)
+					if (tree.get(tree.getRoot(), probes[i]) != null) ++sink;
+				long middle = System.nanoTime();
+				for (int i = 0; i < PROBES; ++i)
+					if (frozen.contains(probes[i].xCoord(), probes[i].yCoord())) ++sink;
+				long end = System.nanoTime();
+
+				if (round >= 2) {
+					pointers = Math.max(pointers, PROBES * 1000.0 / (middle - start));
+					eytzinger = Math.max(eytzinger, PROBES * 1000.0 / (end - middle));
+				}
+				if (sink == 42) System.out.print("");
+			}
+			System.out.printf("%-12d %-15.2f %-17.2f %.2fx%n", n, pointers, eytzinger, eytzinger / pointers);
+		}
+	}
+
+	/* ====================================== */
+	private static void collisions(String scene) {
+		/* ====================================== */
+		/* Tests answered and pixel probes saved by each tier of intersects, when every
+		 * figure tries the steps MoveFigure makes in every direction */
+		final int step = 4;
+		final int[][] moves = {{-step, 0}, {step, 0}, {0, -step}, {0, step}};
+		try {
+			GraphicalFigure[] figures = loadScene(scene, GraphicalFigure.PLAIN_TREE);
+			String[] passes = {"masks", "masks and runs", "leading edges", "oracle", "no masks"};
+			CollisionOracle oracle = new CollisionOracle(64 << 20);
+			for (int pass = 0; pass < passes.length; ++pass) {
+				GraphicalFigure.setCollisionOracle(pass == 3 ? oracle : null);
+				for (GraphicalFigure fig : figures) {
+					if (pass == 1)
+						fig.freeze();
+					else if (pass == 4)
+						fig.dropCollisionMask();
+				}
+				long baseline = 0;
+				double best = Double.MAX_VALUE;
+				for (int round = 0; round < ROUNDS + 2; ++round) {
+					CollisionStats.reset();
+					CollisionStats.setEnabled(true);
+					baseline = 0;
+					long start = System.nanoTime();
+					for (GraphicalFigure fig : figures) {
+						Location curr = fig.getOffset();
+						for (int[] move : moves) {
+							fig.setOffset(new Location(curr.xCoord() + move[0], curr.yCoord() + move[1]));
+							for (GraphicalFigure other : figures)
+								if (other != fig) {
+									if (pass == 2)
+										fig.intersectsAfterMove(other, move[0], move[1]);
+									else
+										fig.intersects(other);
+									baseline += fig.getNumPixels();
+								}
+						}
+						fig.setOffset(curr);
+					}
+					long end = System.nanoTime();
+					CollisionStats.setEnabled(false);
+					if (round >= 2)
+						best = Math.min(best, (end - start) / 1e6);
+				}
+
+				System.out.printf("%s, %s: %d pixel probes without tiers, %.3f ms%n", scene, passes[pass],
+						baseline, best);
+				if (pass == 3)
+					System.out.printf("%d tables, %d bytes%n", oracle.getTableCount(), oracle.getBytesUsed());
+				System.out.println("tier      tests     probes saved");
+				for (int tier = CollisionStats.BOX; tier <= CollisionStats.WALK; ++tier)
+					System.out.printf("%-9s %-9d %d%n", CollisionStats.getName(tier), CollisionStats.getTests(tier),
+							CollisionStats.getSaved(tier));
+			}
+		} catch (IOException e) {
+			System.out.println("Error opening file. " + e.getMessage());
+		}
+	}
+
+	/* ====================================== */
+	private static void cache(String scene) {
+		/* ====================================== */
+		/* Collision cache hits, misses and evictions for several sizes, while the computer
+		 * figures bounce around a 500 x 500 window the way Show moves them */
+		final int ticks = 20000;
+		final int step = 4;
+		final int[][] moves = {{-step, 0}, {step, 0}, {0, -step}, {0, step}};
+		long[] budgets = {0, 4 << 10, 64 << 10, 1 << 20};
+
+		try {
+			System.out.println("cache bytes   time (ms)   hits       misses     evictions");
+			for (int i = -1; i < budgets.length; ++i) {
+				long budget = budgets[Math.max(i, 0)]; // Round -1 warms up the JIT
+				GraphicalFigure[] figures = loadScene(scene, GraphicalFigure.PLAIN_TREE);
+				CollisionCache cache = new CollisionCache(budget);
+				GraphicalFigure.setCollisionCache(budget > 0 ? cache : null);
+				Random generator = new Random(42);
+				int[] dir = new int[figures.length];
+
+				long start = System.nanoTime();
+				for (int tick = 0; tick < ticks; ++tick) {
+					for (int f = 0; f < figures.length; ++f) {
+						if (!figures[f].getType().equals("computer"))
+							continue;
+						Location curr = figures[f].getOffset();
+						int[] move = moves[dir[f]];
+						int x = curr.xCoord() + move[0], y = curr.yCoord() + move[1];
+						boolean blocked = x < 0 || y < 0 || x > 500 - figures[f].getWidth()
+								|| y > 500 - figures[f].getHeight();
+
+						// Same test as MoveFigure: the figure takes the step unless it would hit another one
+						figures[f].setOffset(new Location(x, y));
+						for (int j = 0; j < figures.length && !blocked; ++j)
+							if (j != f && figures[f].intersectsAfterMove(figures[j], move[0], move[1]))
+								blocked = true;
+						if (blocked) {
+							figures[f].setOffset(curr);
+							dir[f] = (dir[f] + 1 + generator.nextInt(3)) % 4;
+						}
+					}
+				}
+				long end = System.nanoTime();
+				GraphicalFigure.setCollisionCache(null);
+				if (i >= 0)
+					System.out.printf("%-13d %-11.2f %-10d %-10d %d%n", budget, (end - start) / 1e6, cache.getHits(),
+						cache.getMisses(), cache.getEvictions());
+			}
+		} catch (IOException e) {
+			System.out.println("Error opening file. " + e.getMessage());
+		}
+	}
+
+	/* ====================================== */
+	private static void broadPhase(int maxFigures, double[] densities) {
+		/* ====================================== */
+		/* Time and narrow phase tests per move, testing every figure against the figures
+		 * found by a broad phase, as the number of figures grows at each density, first
+		 * with squares only, then with one large obstacle every 100 figures */
+		final int moves = 20000;
+		for (boolean mixed : new boolean[] {false, true}) {
+			for (double density : densities) {
+				System.out.printf("%s, density %.3f%n", mixed ? "squares and obstacles" : "squares", density);
+				System.out.println("figures    all pairs (us/move)   grid (us/move)   sweep (us/move)   quadtree (us/move)   tests/move");
+				for (int n = 100; n <= maxFigures; n *= 10) {
+					double allPairs = microsPerMove(syntheticScene(n, density, mixed), null, moves);
+					double grid = microsPerMove(syntheticScene(n, density, mixed), new SpatialGrid(2 * SQUARE), moves);
+					double sweep = microsPerMove(syntheticScene(n, density, mixed), new SweepAndPrune(), moves);
+					double quadtree = microsPerMove(syntheticScene(n, density, mixed),
+							new LooseQuadtree(0, 0, worldSide(n, density), SQUARE), moves);
+					System.out.printf("%-10d %-21.3f %-16.3f %-17.3f %-20.3f %.2f%n", n, allPairs, grid, sweep, quadtree,
+							narrowTests / (double) moves);
+				}
+			}
+		}
+	}
+
+	/* ====================================== */
+	private static void contention(int maxThreads) {
+		/* ====================================== */
+		/* Collision cache lookups per second, each miss followed by a store, with 1 to
+		 * maxThreads threads sharing one cache, behind a single lock and split into stripes */
+		final int lookups = 1 << 20; // Per thread and round
+		final Object[] shapes = new Object[8];
+		for (int i = 0; i < shapes.length; ++i)
+			shapes[i] = new Object();
+		long budget = 1 << 20;
+		int[] stripes = {1, new CollisionCache(budget).getStripeCount()};
+
+		System.out.println("cores: " + Runtime.getRuntime().availableProcessors());
+		System.out.println("threads   stripes   lookups/s (M)   hits (%)");
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			for (int numStripes : stripes) {
+				final CollisionCache cache = new CollisionCache(budget, numStripes);
+				double best = Double.MAX_VALUE;
+				for (int round = 0; round < ROUNDS + 2; ++round) {
+					Thread[] workers = new Thread[threads];
+					for (int t = 0; t < threads; ++t) {
+						final Random generator = new Random(t);
+						workers[t] = new Thread(() -> {
+							for (int k = 0; k < lookups; ++k) {
+								Object a = shapes[generator.nextInt(shapes.length)];
+								Object b = shapes[generator.nextInt(shapes.length)];
+								int dx = generator.nextInt(16), dy = generator.nextInt(16);
+								if (cache.get(a, 0, b, 0, dx, dy, 0, 0) == null)
+									cache.put(a, 0, b, 0, dx, dy, 0, 0, (dx & 1) == 0);
+							}
+						});
+					}
+					long start = System.nanoTime();
+					for (Thread worker : workers)
+						worker.start();
+					try {
+						for (Thread worker : workers)
+							worker.join();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+					if (round >= 2) // The first rounds warm up the JIT
+						best = Math.min(best, (System.nanoTime() - start) / 1e9);
+				}
+				System.out.printf("%-9d %-9d %-15.1f %.1f%n", threads, numStripes, threads * lookups / best / 1e6,
+						100.0 * cache.getHits() / (cache.getHits() + cache.getMisses()));
+			}
+		}
+	}
+
+	/* ====================================== */
+	private static void tick(int n) {
+		/* ====================================== */
+		/* Time per tick when every figure of a synthetic scene moves at once, testing the
+		 * moves on the calling thread and then with more and more threads; every run must
+		 * end with the figures where the first one left them */
+		final int ticks = 50;
+		final double density = 0.05;
+		System.out.printf("%d figures, %d processors%n", n, Runtime.getRuntime().availableProcessors());
+		System.out.println("threads      ms/tick    moved/tick   same result");
+		ArrayList<Integer> threadCounts = new ArrayList<Integer>();
+		threadCounts.add(0); // The calling thread, without a pool
+		for (int threads = 1; threads < Runtime.getRuntime().availableProcessors(); threads *= 2)
+			threadCounts.add(threads);
+		threadCounts.add(Runtime.getRuntime().availableProcessors());
+
+		Location[] reference = null;
+		for (int threads : threadCounts) {
+			GraphicalFigure[] figures = syntheticScene(n, density, false);
+			BroadPhase index = new LooseQuadtree(0, 0, worldSide(n, density), SQUARE);
+			for (GraphicalFigure fig : figures)
+				index.insert(fig);
+			ForkJoinPool pool = threads == 0 ? null : new ForkJoinPool(threads);
+			TickMover ticker = new TickMover(pool, worldSide(n, density), worldSide(n, density));
+
+			final int step = 4;
+			final int[][] directions = {{-step, 0}, {step, 0}, {0, -step}, {0, step}};
+			Random generator = new Random(7);
+			int[] movers = new int[n];
+			int[] dir = new int[n];
+			int[] dx = new int[n];
+			int[] dy = new int[n];
+			for (int i = 0; i < n; ++i) {
+				movers[i] = i;
+				dir[i] = generator.nextInt(4);
+			}
+
+			long moved = 0;
+			long start = System.nanoTime();
+			for (int t = 0; t < ticks; ++t) {
+				for (int i = 0; i < n; ++i) {
+					dx[i] = directions[dir[i]][0];
+					dy[i] = directions[dir[i]][1];
+				}
+				int[] codes = ticker.tick(figures, n, movers, n, dx, dy, index);
+				for (int i = 0; i < n; ++i)
+					if (codes[i] == TickMover.SUCCESS)
+						++moved;
+					else
+						dir[i] = (dir[i] + 1 + generator.nextInt(3)) % 4;
+			}
+			long end = System.nanoTime();
+			if (pool != null)
+				pool.shutdown();
+
+			Location[] offsets = new Location[n];
+			boolean same = true;
+			for (int i = 0; i < n; ++i) {
+				offsets[i] = figures[i].getOffset();
+				if (reference != null && offsets[i].compareTo(reference[i]) != 0)
+					same = false;
+			}
+			if (reference == null)
+				reference = offsets;
+			System.out.printf("%-12s %-10.3f %-12d %s%n", threads == 0 ? "calling" : Integer.toString(threads),
+					(end - start) / 1e6 / ticks, moved / ticks, same ? "yes" : "no");
+		}
+	}
+
+	/* ====================================== */
+	private static double microsPerMove(GraphicalFigure[] figures, BroadPhase index, int moves) {
+		/* ====================================== */
+		/* Microseconds per move when random figures take random steps as MoveFigure does,
+		 * testing them against all the figures or only those the index pairs them with */
+		final int step = 4;
+		final int[][] directions = {{-step, 0}, {step, 0}, {0, -step}, {0, step}};
+		Random generator = new Random(7);
+
+		if (index != null) {
+			for (GraphicalFigure fig : figures)
+				index.insert(fig);
+			index.candidates(figures[0]); // Lets the index finish building before timing
+		}
+		narrowTests = 0;
+		long start = System.nanoTime();
+		for (int k = 0; k < moves; ++k) {
+			GraphicalFigure fig = figures[generator.nextInt(figures.length)];
+			int[] move = directions[generator.nextInt(4)];
+			Location curr = fig.getOffset();
+			fig.setOffset(new Location(curr.xCoord() + move[0], curr.yCoord() + move[1]));
+
+			boolean blocked = false;
+			if (index == null) {
+				for (int i = 0; i < figures.length && !blocked; ++i)
+					if (figures[i] != fig) {
+						++narrowTests;
+						blocked = fig.intersectsAfterMove(figures[i], move[0], move[1]);
+					}
+			} else {
+				// Same as MoveFigure: move the figure in the index, then test the figures paired with it
+				index.update(fig);
+				for (int i : index.candidates(fig))
+					if (!blocked) {
+						++narrowTests;
+						blocked = fig.intersectsAfterMove(figures[i], move[0], move[1]);
+					}
+			}
+			if (blocked) {
+				fig.setOffset(curr);
+				if (index != null)
+					index.update(fig);
+			}
+		}
+		return (System.nanoTime() - start) / 1e3 / moves;
+	}
+
+	/* ====================================== */
+	private static GraphicalFigure[] syntheticScene(int n, double density, boolean mixed) {
+		/* ====================================== */
+		/* n solid squares placed at random in a square world, covering the given fraction of
+		 * it; if mixed, every 100th figure is instead the outline of a large obstacle */
+		int side = worldSide(n, density) - OBSTACLE;
+		Random generator = new Random(n);
+		GraphicalFigure[] figures = new GraphicalFigure[n];
+
+		for (int i = 0; i < n; ++i) {
+			Location pos = new Location(generator.nextInt(side), generator.nextInt(side));
+			if (mixed && i % 100 == 0) {
+				figures[i] = new GraphicalFigure(i, OBSTACLE, OBSTACLE, "fixed", pos, GraphicalFigure.PACKED_TREE);
+				for (int k = 0; k < OBSTACLE; ++k) {
+					figures[i].addPixel(k, 0, 0);
+					figures[i].addPixel(k, OBSTACLE - 1, 0);
+				}
+				for (int k = 1; k < OBSTACLE - 1; ++k) {
+					figures[i].addPixel(0, k, 0);
+					figures[i].addPixel(OBSTACLE - 1, k, 0);
+				}
+				continue;
+			}
+			figures[i] = new GraphicalFigure(i, SQUARE, SQUARE, "computer", pos, GraphicalFigure.PACKED_TREE);
+			for (int x = 0; x < SQUARE; ++x)
+				for (int y = 0; y < SQUARE; ++y)
+					figures[i].addPixel(x, y, 0);
+		}
+		return figures;
+	}
+
+	/* ====================================== */
+	private static int worldSide(int n, double density) {
+		/* ====================================== */
+		/* Side of the world of the synthetic scene of n figures at the given density */
+		return (int) Math.sqrt(n * SQUARE * SQUARE / density) + OBSTACLE;
+	}
+
+	/* ====================================== */
+	private static void memory(String[] scenes) {
+		/* ====================================== */
+		/* Heap bytes used per stored pixel by the figures of each scene */
+		String[] storageNames = {"plain", "balanced", "packed"};
+		int[] storages = {GraphicalFigure.PLAIN_TREE, GraphicalFigure.BALANCED_TREE, GraphicalFigure.PACKED_TREE};
+
+		System.out.println("scene        storage   figures   pixels     heap bytes/pixel");
+		for (String scene : scenes) {
+			for (int i = 0; i < storages.length; ++i) {
+				try {
+					loadScene(scene, storages[i]); // Warm up class loading and ImageIO
+					long before = usedHeap();
+					GraphicalFigure[] figures = loadScene(scene, storages[i]);
+					long after = usedHeap();
+					System.out.printf("%-12s %-9s %-9d %-10d %.1f%n", scene, storageNames[i], figures.length,
+							storedPixels, (after - before) / (double) storedPixels);
+				} catch (IOException e) {
+					System.out.println("Error opening file. " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/* ====================================== */
+	private static void load(String[] scenes) {
+		/* ====================================== */
+		/* Time to build the pixel trees of a scene by binary splitting insertion and by bulk loading */
+		System.out.println("scene        pixels     insertPoints (ms)   fromRaster (ms)");
+		for (String scene : scenes) {
+			try {
+				ArrayList<BufferedImage> images = new ArrayList<BufferedImage>();
+				BufferedReader input = new BufferedReader(new FileReader(scene));
+				String line;
+				while ((line = input.readLine()) != null) {
+					StringTokenizer tokenizer = new StringTokenizer(line);
+					for (int i = 0; i < 3; ++i)
+						tokenizer.nextToken();
+					images.add(ImageIO.read(new File(tokenizer.nextToken())));
+				}
+				input.close();
+
+				double splitting = Double.MAX_VALUE, bulk = Double.MAX_VALUE;
+				for (int round = 0; round < ROUNDS + 2; ++round) {
+					storedPixels = 0;
+					long start = System.nanoTime();
+					for (BufferedImage im : images) {
+						GraphicalFigure fig = new GraphicalFigure(0, im.getWidth(), im.getHeight(), "fixed",
+								new Location(0, 0));
+						insertPoints(fig, im, 0, 0, im.getWidth() - 1, im.getHeight() - 1, im.getWidth());
+					}
+					long middle = System.nanoTime();
+					for (BufferedImage im : images) {
+						int[] argb = im.getRGB(0, 0, im.getWidth(), im.getHeight(), null, 0, im.getWidth());
+						BinarySearchTree.fromRaster(argb, im.getWidth(), im.getHeight(), THRESHOLD);
+					}
+					long end = System.nanoTime();
+					if (round >= 2) {
+						splitting = Math.min(splitting, (middle - start) / 1e6);
+						bulk = Math.min(bulk, (end - middle) / 1e6);
+					}
+				}
+				System.out.printf("%-12s %-10d %-19.2f %.2f%n", scene, storedPixels, splitting, bulk);
+			} catch (IOException e) {
+				System.out.println("Error opening file. " + e.getMessage());
+			}
+		}
+	}
+
+	/* ====================================== */
+	private static void assets(String[] scenes) {
+		/* ====================================== */
+		/* Time and heap to build the figures and sprites of a scene, decoding every image
+		 * of the scene as readFigures did and loading the shapes from a ShapeCache */
+		System.out.println("scene        figures   images   per figure (ms)   shared (ms)   per figure (KB)   shared (KB)");
+		for (String scene : scenes) {
+			try {
+				ArrayList<String> files = new ArrayList<String>();
+				BufferedReader input = new BufferedReader(new FileReader(scene));
+				String line;
+				while ((line = input.readLine()) != null) {
+					StringTokenizer tokenizer = new StringTokenizer(line);
+					for (int i = 0; i < 3; ++i)
+						tokenizer.nextToken();
+					files.add(tokenizer.nextToken());
+				}
+				input.close();
+
+				double perFigure = Double.MAX_VALUE, shared = Double.MAX_VALUE;
+				int images = 0;
+				for (int round = 0; round < ROUNDS + 2; ++round) {
+					long start = System.nanoTime();
+					decodeEach(files);
+					long middle = System.nanoTime();
+					ShapeCache shapes = new ShapeCache(THRESHOLD, 0xCDC8CD);
+					loadShared(files, shapes);
+					long end = System.nanoTime();
+					images = shapes.size();
+					if (round >= 2) {
+						perFigure = Math.min(perFigure, (middle - start) / 1e6);
+						shared = Math.min(shared, (end - middle) / 1e6);
+					}
+				}
+
+				long before = usedHeap();
+				Object[] kept = decodeEach(files);
+				long middle = usedHeap();
+				Object[] keptShared = loadShared(files, new ShapeCache(THRESHOLD, 0xCDC8CD));
+				long after = usedHeap();
+				System.out.printf("%-12s %-9d %-8d %-17.2f %-13.2f %-17.1f %.1f%n", scene, files.size(), images,
+						perFigure, shared, (middle - before) / 1024.0, (after - middle) / 1024.0);
+				if (kept.length + keptShared.length < 0)
+					System.out.println(); // Keeps both sets of figures alive until measured
+			} catch (IOException e) {
+				System.out.println("Error opening file. " + e.getMessage());
+			}
+		}
+	}
+
+	/* ====================================== */
+	private static void loader(String[] scenes) {
+		/* ====================================== */
+		/* Time until the first and the last figure of a scene are published by a SceneLoader
+		 * decoding on one thread and on as many threads as there are processors */
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		System.out.println("scene        threads   first figure (ms)   whole scene (ms)");
+		for (String scene : scenes) {
+			for (int n : new int[] {1, threads}) {
+				try {
+					double first = Double.MAX_VALUE, whole = Double.MAX_VALUE;
+					for (int round = 0; round < ROUNDS + 2; ++round) {
+						final long start = System.nanoTime();
+						final long[] firstAt = {0};
+						SceneLoader.Loading loading = new SceneLoader(new ShapeCache(THRESHOLD, 0xCDC8CD), n)
+								.start(scene);
+						loading.publish((fig, shape) -> {
+							if (firstAt[0] == 0)
+								firstAt[0] = System.nanoTime();
+						});
+						long end = System.nanoTime();
+						if (round >= 2) {
+							first = Math.min(first, (firstAt[0] - start) / 1e6);
+							whole = Math.min(whole, (end - start) / 1e6);
+						}
+					}
+					System.out.printf("%-12s %-9d %-19.2f %.2f%n", scene, n, first, whole);
+				} catch (IOException e) {
+					System.out.println("Error opening file. " + e.getMessage());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/* ====================================== */
+	private static File generatedScene(int figures) throws IOException {
+		/* ====================================== */
+		/* A temporary scene file of fixed figures at random offsets of a 4000 x 4000 board,
+		 * drawn from the images of figs1 */
+		File large = File.createTempFile("scene", ".txt");
+		large.deleteOnExit();
+		ArrayList<String> images = new ArrayList<String>();
+		BufferedReader input = new BufferedReader(new FileReader("figs1"));
+		String line;
+		while ((line = input.readLine()) != null) {
+			StringTokenizer tokenizer = new StringTokenizer(line);
+			for (int i = 0; i < 3; ++i)
+				tokenizer.nextToken();
+			images.add(tokenizer.nextToken());
+		}
+		input.close();
+		Random generator = new Random(1);
+		PrintWriter output = new PrintWriter(large);
+		for (int i = 0; i < figures; ++i)
+			output.println(generator.nextInt(4000) + " " + generator.nextInt(4000) + " fixed "
+					+ images.get(generator.nextInt(images.size())));
+		output.close();
+		return large;
+	}
+
+	/* ====================================== */
+	private static void parse(int lines) {
+		/* ====================================== */
+		/* Lines per second read from a generated scene by a BufferedReader with a
+		 * StringTokenizer, as readFigures did, and by SceneParser */
+		System.out.println("lines       tokenizer (lines/s)   parser (lines/s)");
+		try {
+			File scene = generatedScene(lines);
+			final long[] checksum = {0, 0};
+			double tokenizer = 0, parser = 0;
+			for (int round = 0; round < ROUNDS + 2; ++round) {
+				long start = System.nanoTime();
+				BufferedReader input = new BufferedReader(new FileReader(scene));
+				String line;
+				while ((line = input.readLine()) != null) {
+					StringTokenizer tokens = new StringTokenizer(line);
+					checksum[0] += Integer.parseInt(tokens.nextToken()) + Integer.parseInt(tokens.nextToken());
+					checksum[0] += tokens.nextToken().length() + tokens.nextToken().length();
+				}
+				input.close();
+				long middle = System.nanoTime();
+				checksum[1] = 0;
+				new SceneParser().parse(scene.getPath(), new SceneParser.Handler() {
+					public void figure(int line, int x, int y, String type, String file) {
+						checksum[1] += x + y + type.length() + file.length();
+					}
+
+					public void malformed(int line, String reason) {
+						System.out.println("Line " + line + ": " + reason);
+					}
+				});
+				long end = System.nanoTime();
+				if (round >= 2) {
+					tokenizer = Math.max(tokenizer, lines / ((middle - start) / 1e9));
+					parser = Math.max(parser, lines / ((end - middle) / 1e9));
+				}
+				checksum[0] = 0;
+			}
+			System.out.printf("%-11d %-21.0f %.0f%n", lines, tokenizer, parser);
+		} catch (IOException e) {
+			System.out.println("Error opening file. " + e.getMessage());
+		}
+	}
+
+	/* ====================================== */
+	private static void lazy(int n) {
+		/* ====================================== */
+		/* Load time of a generated scene whose figures take their pixels on first use, the
+		 * time building every shape up front would add, and how many figures and shapes
+		 * are still not built after a tenth of the figures wander for 100 ticks */
+		final int side = 4000;
+		final int ticks = 100;
+		System.out.println("figures   load (ms)   build all (ms)   figures never built   shapes never built");
+		try {
+			File scene = generatedScene(n);
+			final ArrayList<GraphicalFigure> loaded = new ArrayList<GraphicalFigure>();
+			final ArrayList<ShapeAsset> shapes = new ArrayList<ShapeAsset>();
+			long start = System.nanoTime();
+			new SceneLoader(new ShapeCache(THRESHOLD, 0xCDC8CD), Math.max(2, Runtime.getRuntime().availableProcessors()))
+					.start(scene.getPath()).publish((fig, shape) -> {
+						loaded.add(fig);
+						if (!shapes.contains(shape))
+							shapes.add(shape);
+					});
+			long middle = System.nanoTime();
+
+			// What loading paid when every shape was built as soon as it was decoded
+			ShapeCache copies = new ShapeCache(THRESHOLD, 0xCDC8CD);
+			long built = 0;
+			for (String line : Files.readAllLines(new File("figs1").toPath())) {
+				StringTokenizer tokenizer = new StringTokenizer(line);
+				for (int i = 0; i < 3; ++i)
+					tokenizer.nextToken();
+				ShapeAsset shape = copies.load(new File(tokenizer.nextToken()));
+				long before = System.nanoTime();
+				shape.getPrototype();
+				built += System.nanoTime() - before;
+			}
+
+			GraphicalFigure[] figures = loaded.toArray(new GraphicalFigure[loaded.size()]);
+			BroadPhase index = new LooseQuadtree(0, 0, side, SQUARE);
+			for (GraphicalFigure fig : figures)
+				index.insert(fig);
+			TickMover ticker = new TickMover(null, side, side);
+			Random generator = new Random(7);
+			int count = n / 10;
+			int[] movers = new int[count];
+			int[] dx = new int[count];
+			int[] dy = new int[count];
+			for (int k = 0; k < count; ++k)
+				movers[k] = k * 10;
+			for (int t = 0; t < ticks; ++t) {
+				for (int k = 0; k < count; ++k) {
+					dx[k] = 4 * (generator.nextInt(3) - 1);
+					dy[k] = 4 * (generator.nextInt(3) - 1);
+				}
+				ticker.tick(figures, n, movers, count, dx, dy, index);
+			}
+
+			int figuresLeft = 0, shapesLeft = 0;
+			for (GraphicalFigure fig : figures)
+				if (!fig.isMaterialized())
+					++figuresLeft;
+			for (ShapeAsset shape : shapes)
+				if (!shape.isMaterialized())
+					++shapesLeft;
+			System.out.printf("%-9d %-11.2f %-16.2f %-21s %s%n", n, (middle - start) / 1e6, built / 1e6,
+					figuresLeft + " of " + n, shapesLeft + " of " + shapes.size());
+		} catch (IOException e) {
+			System.out.println("Error opening file. " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* ====================================== */
+	private static void bundle(int figures) {
+		/* ====================================== */
+		/* Time to load figs, figs1 and a scene of the given number of figures drawn from the
+		 * images of figs1, decoding the images with a SceneLoader and mapping a compiled bundle */
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		System.out.println("scene        figures   images   bundle (KB)   decoded (ms)   bundle (ms)");
+		try {
+			File large = generatedScene(figures);
+			String[] scenes = {"figs", "figs1", large.getPath()};
+			String[] labels = {"figs", "figs1", "generated"};
+			for (int k = 0; k < scenes.length; ++k) {
+				String scene = scenes[k];
+				File bundle = File.createTempFile("scene", ".bundle");
+				bundle.deleteOnExit();
+				int n = SceneCompiler.compile(scene, bundle.getPath(), THRESHOLD);
+				double decoded = Double.MAX_VALUE, mapped = Double.MAX_VALUE;
+				int shapes = 0;
+				for (int round = 0; round < ROUNDS + 2; ++round) {
+					final int[] published = {0};
+					long start = System.nanoTime();
+					new SceneLoader(new ShapeCache(THRESHOLD, 0xCDC8CD), threads).start(scene)
+							.publish((fig, shape) -> ++published[0]);
+					long middle = System.nanoTime();
+					SceneBundle loaded = SceneBundle.open(bundle.getPath(), THRESHOLD, 0xCDC8CD);
+					loaded.publish((fig, shape) -> ++published[0]);
+					long end = System.nanoTime();
+					shapes = loaded.getNumShapes();
+					if (published[0] != 2 * n)
+						System.out.println("Figures lost: " + published[0] + " of " + 2 * n);
+					if (round >= 2) {
+						decoded = Math.min(decoded, (middle - start) / 1e6);
+						mapped = Math.min(mapped, (end - middle) / 1e6);
+					}
+				}
+				System.out.printf("%-12s %-9d %-8d %-13.1f %-14.2f %.2f%n", labels[k], n, shapes, bundle.length() / 1024.0, decoded, mapped);
+			}
+		} catch (IOException e) {
+			System.out.println("Error opening file. " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/* ====================================== */
+	private static Object[] decodeEach(ArrayList<String> files) throws IOException {
+		/* ====================================== */
+		/* The figures and sprites of the files, decoding every file as readFigures did */
+		Object[] built = new Object[3 * files.size()];
+		for (int i = 0; i < files.size(); ++i) {
+			BufferedImage im = ImageIO.read(new File(files.get(i)));
+			int width = im.getWidth(), height = im.getHeight();
+			int[] argb = im.getRGB(0, 0, width, height, null, 0, width);
+			GraphicalFigure fig = new GraphicalFigure(i, width, height, "fixed", new Location(0, 0),
+					BinarySearchTree.fromRaster(argb, width, height, THRESHOLD));
+			fig.freeze();
+			BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+			BufferedImage erased = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+			image.setRGB(0, 0, width, height, argb, 0, width);
+			erased.setRGB(0, 0, width, height, argb, 0, width);
+			built[3 * i] = fig;
+			built[3 * i + 1] = image;
+			built[3 * i + 2] = erased;
+		}
+		return built;
+	}
+
+	/* ====================================== */
+	private static Object[] loadShared(ArrayList<String> files, ShapeCache shapes) throws IOException {
+		/* ====================================== */
+		/* The figures and sprites of the files, sharing the shapes of the same image */
+		Object[] built = new Object[3 * files.size()];
+		for (int i = 0; i < files.size(); ++i) {
+			ShapeAsset shape = shapes.load(new File(files.get(i)));
+			built[3 * i] = shape.newFigure(i, "fixed", new Location(0, 0));
+			built[3 * i + 1] = shape.getImage();
+			built[3 * i + 2] = shape.getErased();
+		}
+		return built;
+	}
+
+	/* ====================================== */
+	private static long usedHeap() {
+		/* ====================================== */
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; ++i) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/* ====================================== */
+	private static GraphicalFigure[] loadScene(String name, int storage) throws IOException {
+		/* ====================================== */
+		/* Build the figures of a scene file the way Gui.readFigures does, without a window */
+		ArrayList<GraphicalFigure> figures = new ArrayList<GraphicalFigure>();
+		BufferedReader input = new BufferedReader(new FileReader(name));
+		String line;
+
+		storedPixels = 0;
+		while ((line = input.readLine()) != null) {
+			StringTokenizer tokenizer = new StringTokenizer(line);
+			int x = Integer.parseInt(tokenizer.nextToken());
+			int y = Integer.parseInt(tokenizer.nextToken());
+			String type = tokenizer.nextToken();
+			BufferedImage im = ImageIO.read(new File(tokenizer.nextToken()));
+
+			GraphicalFigure fig = new GraphicalFigure(figures.size(), im.getWidth(), im.getHeight(), type,
+					new Location(x, y), storage);
+			insertPoints(fig, im, 0, 0, im.getWidth() - 1, im.getHeight() - 1, im.getWidth());
+			figures.add(fig);
+		}
+		input.close();
+		return figures.toArray(new GraphicalFigure[figures.size()]);
+	}
+
+	/* ====================================== */
+	private static void insertPoints(GraphicalFigure fig, BufferedImage im, int xf, int yf, int xl, int yl,
+			int width) {
+		/* ====================================== */
+		/* Insert the pixels of the image splitting around the middle one, so plain and packed trees stay shallow */
+		if ((yf < yl) || ((yf == yl) && (xf <= xl))) {
+			int m = (yf * width + xf + yl * width + xl) / 2;
+			int xm = m % width;
+			int ym = m / width;
+			int rgb = im.getRGB(xm, ym);
+			if (!(((rgb & 0xff) >= THRESHOLD) && (((rgb & 0xff00) >> 8) >= THRESHOLD)
+					&& (((rgb & 0xff0000) >> 16) >= THRESHOLD))) {
+				fig.addPixel(xm, ym, rgb);
+				++storedPixels;
+			}
+			if (xm > 0)
+				insertPoints(fig, im, xf, yf, xm - 1, ym, width);
+			else
+				insertPoints(fig, im, xf, yf, width - 1, ym - 1, width);
+			if (xm < width - 1)
+				insertPoints(fig, im, xm + 1, ym, xl, yl, width);
+			else
+				insertPoints(fig, im, 0, ym + 1, xl, yl, width);
+		}
+	}
+
+	/* ====================================== */
+	private static Pixel recursiveGet(BinaryNode r, Location key) {
+		/* ====================================== */
+		/* The recursive lookup BinarySearchTree.get used before, kept as the baseline */
+		if (r.isLeaf())
+			return null;
+		int comparison = r.getData().getLocation().compareTo(key);
+		if (comparison == 0)
+			return r.getData();
+		else if (comparison > 0)
+			return recursiveGet(r.getLeft(), key);
+		else
+			return recursiveGet(r.getRight(), key);
+	}
+
+	/* ====================================== */
+	private static void insertBalanced(BinarySearchTree tree, int first, int last) {
+		/* ====================================== */
+		/* Insert keys first..last splitting around the middle one, as insertPoints does */
+		if (first <= last) {
+			int middle = (first + last) >>> 1;
+			tree.put(tree.getRoot(), new Pixel(key(middle), middle));
+			insertBalanced(tree, first, middle - 1);
+			insertBalanced(tree, middle + 1, last);
+		}
+	}
+
+	/* ====================================== */
+	private static Location key(int i) {
+		/* ====================================== */
+		/* The i-th location of a figure 1000 pixels high in column order */
+		return new Location(i / 1000, i % 1000);
+	}
+}
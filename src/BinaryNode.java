@@ -8,6 +8,30 @@
  */
 public class BinaryNode {
 	
+	/**
+	 * The leaf shared by every tree. It stores no data, is black, and cannot be modified
+	 */
+	public static final BinaryNode LEAF = new BinaryNode() {
+		public void setParent(BinaryNode parent) {
+			throw new UnsupportedOperationException("The shared leaf cannot be modified");
+		}
+		public void setLeft(BinaryNode p) {
+			throw new UnsupportedOperationException("The shared leaf cannot be modified");
+		}
+		public void setRight(BinaryNode p) {
+			throw new UnsupportedOperationException("The shared leaf cannot be modified");
+		}
+		public void setData(Pixel value) {
+			throw new UnsupportedOperationException("The shared leaf cannot be modified");
+		}
+		public void setRed(boolean red) {
+			throw new UnsupportedOperationException("The shared leaf cannot be modified");
+		}
+		public void setSize(int size) {
+			throw new UnsupportedOperationException("The shared leaf cannot be modified");
+		}
+	};
+	
 	/**
 	 * Declaration of instance variables
 	 */
@@ -15,6 +39,8 @@ public class BinaryNode {
 	private BinaryNode left;
 	private BinaryNode right; 
 	private BinaryNode parent;
+	private boolean red;
+	private int size; // Number of internal nodes in the subtree rooted at this node
 	
 	/**
 	 * A constructor for the class
@@ -33,6 +59,7 @@ public class BinaryNode {
 		this.left = left;
 		this.right = right;
 		this.parent = parent;
+		this.size = 1 + (left == null ? 0 : left.getSize()) + (right == null ? 0 : right.getSize());
 	}
 	
 	/**
@@ -44,6 +71,7 @@ public class BinaryNode {
 		this.left = null;
 		this.right = null;
 		this.parent = null;
+		this.size = 0;
 	}
 	
 	/**
@@ -130,4 +158,42 @@ public class BinaryNode {
 	public BinaryNode getRight() {
 		return this.right;
 	}
+	
+	/**
+	 * Returns true if this node is coloured red, returns false if it is black.
+	 * Only the balanced tree colours its nodes; leaves are always black
+	 * @return
+	 *		true if node is red
+	 *		false otherwise
+	 */
+	public boolean isRed() {
+		return this.red;
+	}
+	
+	/**
+	 * Sets the colour of this node
+	 * @param red
+	 * 		  true to colour the node red, false to colour it black
+	 */
+	public void setRed(boolean red) {
+		this.red = red;
+	}
+	
+	/**
+	 * Returns the number of pixels stored in the subtree rooted at this node
+	 * @return
+	 *		size of the subtree, 0 for a leaf
+	 */
+	public int getSize() {
+		return this.size;
+	}
+	
+	/**
+	 * Sets the number of pixels stored in the subtree rooted at this node
+	 * @param size
+	 * 		  size of the subtree
+	 */
+	public void setSize(int size) {
+		this.size = size;
+	}
 }
@@ -1,8 +1,14 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+
 /**
  * This class implements an ordered dictionary using a binary search tree. 
  * Each node of the tree will store a Pixel object; the attribute Location of the Pixel will be its key.
  * Only the internal nodes will store information. 
- * The leaves are nodes (leaves are not null) that do not store any data
+ * The leaves are nodes (leaves are not null) that do not store any data; all of them
+ * are the single shared node BinaryNode.LEAF, so no leaf is ever allocated.
+ * Every node also records the size of its subtree, which answers order
+ * statistics (size, rank, select, countInRange) in time proportional to the height
  * 
  * @author Tala Buwadi, tbuwadi
  *
@@ -19,7 +25,151 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 	 * A constructor that creates a tree whose root is a leaf node
 	 */
 	public BinarySearchTree() {
-		this.root = new BinaryNode();
+		this.root = BinaryNode.LEAF;
+	}
+	
+	/**
+	 * Builds a perfectly balanced tree from pixels given in increasing order of
+	 * their keys. Takes linear time since no search is needed to place a pixel.
+	 * 
+	 * @param pixels
+	 * 			the pixels, sorted by Location
+	 * 
+	 * @return
+	 * 			a tree storing the given pixels
+	 * 
+	 * @throws
+	 * 			DuplicatedKeyException if two pixels have the same key
+	 * 			IllegalArgumentException if the pixels are not sorted
+	 */
+	public static BinarySearchTree fromSorted(Iterator<Pixel> pixels) throws DuplicatedKeyException {
+		ArrayList<Pixel> sorted = new ArrayList<Pixel>();
+		
+		while(pixels.hasNext()) {
+			Pixel pix = pixels.next();
+			
+			//Every key must be larger than the one before it
+			if(!sorted.isEmpty()) {
+				int comparison = sorted.get(sorted.size() - 1).getLocation().compareTo(pix.getLocation());
+				if(comparison == 0) {
+					throw new DuplicatedKeyException();
+				}
+				if(comparison > 0) {
+					throw new IllegalArgumentException("Pixels are not sorted by location");
+				}
+			}
+			sorted.add(pix);
+		}
+		
+		BinarySearchTree tree = new BinarySearchTree();
+		tree.root = build(sorted.toArray(new Pixel[sorted.size()]), 0, sorted.size() - 1, null);
+		return tree;
+	}
+	
+	/**
+	 * Builds a perfectly balanced tree with the opaque pixels of an image, in
+	 * linear time. A pixel is transparent, and left out, when its red, green
+	 * and blue components are all at least threshold.
+	 * 
+	 * @param argb
+	 * 			the colours of the image, row by row as returned by BufferedImage.getRGB
+	 * @param width
+	 * 			width of the image
+	 * @param height
+	 * 			height of the image
+	 * @param threshold
+	 * 			smallest component value of a transparent pixel
+	 * 
+	 * @return
+	 * 			a tree storing the opaque pixels of the image
+	 */
+	public static BinarySearchTree fromRaster(int[] argb, int width, int height, int threshold) {
+		Pixel[] sorted = new Pixel[width * height];
+		int n = 0;
+		
+		//Visit the image in column order, which is the order of the keys
+		for(int x = 0; x < width; ++x) {
+			for(int y = 0; y < height; ++y) {
+				int rgb = argb[y * width + x];
+				if(!isTransparent(rgb, threshold)) {
+					sorted[n++] = new Pixel(new Location(x, y), rgb);
+				}
+			}
+		}
+		
+		BinarySearchTree tree = new BinarySearchTree();
+		tree.root = build(sorted, 0, n - 1, null);
+		return tree;
+	}
+	
+	/**
+	 * Builds a perfectly balanced tree from packed keys (see Location.pack)
+	 * given in increasing order, in linear time. Used for pixels read from a
+	 * scene bundle, which are already sorted.
+	 * 
+	 * @param keys
+	 * 			the packed keys, in increasing order
+	 * @param colors
+	 * 			the colour of each key
+	 * @param n
+	 * 			the number of pixels
+	 * 
+	 * @return
+	 * 			a tree storing the given pixels
+	 */
+	public static BinarySearchTree fromPacked(long[] keys, int[] colors, int n) {
+		Pixel[] sorted = new Pixel[n];
+		for(int i = 0; i < n; ++i) {
+			sorted[i] = new Pixel(new Location(Location.xOf(keys[i]), Location.yOf(keys[i])), colors[i]);
+		}
+		
+		BinarySearchTree tree = new BinarySearchTree();
+		tree.root = build(sorted, 0, n - 1, null);
+		return tree;
+	}
+	
+	/**
+	 * Returns true if the red, green and blue components of the colour are all
+	 * at least threshold
+	 * 
+	 * @param rgb
+	 * 			the colour
+	 * @param threshold
+	 * 			smallest component value of a transparent pixel
+	 * 
+	 * @return
+	 * 			true if the pixel is transparent
+	 */
+	public static boolean isTransparent(int rgb, int threshold) {
+		return ((rgb & 0xff) >= threshold) && (((rgb & 0xff00) >> 8) >= threshold)
+				&& (((rgb & 0xff0000) >> 16) >= threshold);
+	}
+	
+	/**
+	 * Links sorted[first..last] into a balanced subtree rooted at the middle pixel
+	 * 
+	 * @param sorted
+	 * 			the pixels, sorted by Location
+	 * @param first
+	 * 			index of the first pixel of the subtree
+	 * @param last
+	 * 			index of the last pixel of the subtree
+	 * @param parent
+	 * 			the parent of the subtree
+	 * 
+	 * @return
+	 * 			the root of the subtree
+	 */
+	private static BinaryNode build(Pixel[] sorted, int first, int last, BinaryNode parent) {
+		if(first > last) {
+			return BinaryNode.LEAF;
+		}
+		int middle = (first + last) >>> 1;
+		BinaryNode node = new BinaryNode(sorted[middle], BinaryNode.LEAF, BinaryNode.LEAF, parent);
+		node.setLeft(build(sorted, first, middle - 1, node));
+		node.setRight(build(sorted, middle + 1, last, node));
+		node.setSize(last - first + 1);
+		return node;
 	}
 	
 	
@@ -38,24 +188,13 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 	 */
 	public Pixel get(BinaryNode r, Location key) {
 		
-		//If r is a leaf return null
-		if(r.isLeaf()) {
-				return null;
-		}
-		else {
-			//If the key we want is the key stored in r, return the pixel
-			if (r.getData().getLocation().compareTo(key) == 0) {
-				return r.getData();
-			}
-			//If k is less than the key stored in r then return the left most key
-			else if(r.getData().getLocation().compareTo(key)>0) {
-				return get(r.getLeft(), key);
-			}
-			//If k is larger than the key stored in r then return the right most key
-			else {
-				return get(r.getRight(), key);
-			} 
+		BinaryNode currentNode = getNode(r, key);
+		
+		//If the search ended in a leaf the key is not in the tree
+		if(currentNode.isLeaf()) {
+			return null;
 		}
+		return currentNode.getData();
 	}
 
 	/**
@@ -71,26 +210,28 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 	 * 			the node storing the given key if in tree
 	 * 			null otherwise
 	 */
-	private BinaryNode getNode(BinaryNode r, Location key) {
+	protected BinaryNode getNode(BinaryNode r, Location key) {
 
-		//If r is a leaf return r
-		if(r.isLeaf()) {
-			return r;
-		}
-		else {
-			//If the key we want is the key stored in r, return the node
-			if (r.getData().getLocation().compareTo(key) == 0) {
-				return r;
+		BinaryNode currentNode = r;
+		
+		//Walk down until reaching a leaf or the node storing the key
+		while(!currentNode.isLeaf()) {
+			int comparison = currentNode.getData().getLocation().compareTo(key);
+			
+			//If the key we want is the key stored in the node, return the node
+			if (comparison == 0) {
+				return currentNode;
 			}
-			//If k is less than the key stored in r then return the left most node
-			else if(r.getData().getLocation().compareTo(key)>0) {
-				return getNode(r.getLeft(), key);
+			//If k is less than the key stored in the node then continue to the left
+			else if(comparison > 0) {
+				currentNode = currentNode.getLeft();
 			}
-			//If k is larger than the key stored in r then return the right most node
+			//If k is larger than the key stored in the node then continue to the right
 			else {
-				return getNode(r.getRight(), key);
+				currentNode = currentNode.getRight();
 			}
 		}
+		return currentNode;
 	}
 
 	/**
@@ -108,29 +249,57 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 	 * 
 	 */
 	public void put(BinaryNode r, Pixel data) throws DuplicatedKeyException{
+		insertNode(r, data);
+	}
+
+	/**
+	 * Creates a node storing the given data and links it into the tree in place
+	 * of the leaf where the search for its key ends. If a node already stores the
+	 * same key, the algorithm throws a DuplicatedKeyException.
+	 * 
+	 * @param r
+	 * 		the root of the tree
+	 * @param data
+	 * 		the pixel we want to add
+	 * 
+	 * @return
+	 * 		the new node
+	 * 
+	 * @throws	
+	 * 		DuplicatedKeyException if a node already stores the same key
+	 */
+	protected BinaryNode insertNode(BinaryNode r, Pixel data) throws DuplicatedKeyException{
 		
-		//Get the current node
-		BinaryNode currentNode = getNode(r, data.getLocation());
+		BinaryNode parent = null;
+		BinaryNode currentNode = r;
+		Location key = data.getLocation();
+		int comparison = 0;
+		
+		//Walk down to the leaf where the key belongs, remembering its parent
+		while(!currentNode.isLeaf()) {
+			comparison = currentNode.getData().getLocation().compareTo(key);
+			
+			//If a node already stores the key the information is duplicated, return exception
+			if(comparison == 0) {
+				throw new DuplicatedKeyException();
+			}
+			parent = currentNode;
+			currentNode = comparison > 0 ? currentNode.getLeft() : currentNode.getRight();
+		}
 		
-		//If the node is an internal node then the information is duplicated, return exception
-		if(!currentNode.isLeaf()) {
-			throw new DuplicatedKeyException();
+		//Replace the leaf by a new node whose children are leaves
+		BinaryNode node = new BinaryNode(data, BinaryNode.LEAF, BinaryNode.LEAF, parent);
+		if(parent == null) {
+			this.root = node;
+		}
+		else if(comparison > 0) {
+			parent.setLeft(node);
 		}
-		//Otherwise, the node is a leaf which means it is null, so store the information into it
 		else {
-			//Set data of current
-			currentNode.setData(data);
-			
-			//Set empty left and right children 
-			BinaryNode left = new BinaryNode();
-			BinaryNode right = new BinaryNode();
-			currentNode.setLeft(left);
-			currentNode.setRight(right);
-			
-			//Set parents of children to node
-			left.setParent(currentNode);
-			right.setParent(currentNode);
+			parent.setRight(node);
 		}
+		resize(parent, 1);
+		return node;
 	}
 
 	/**
@@ -150,7 +319,7 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 		
 		//Get the current node
 		BinaryNode currentNode = getNode(r, key);
-		BinaryNode otherChild = new BinaryNode();
+		BinaryNode otherChild;
 		BinaryNode parent = currentNode.getParent();
 		
 		//If p is a leaf then return an exception (leafs don't store data, so this means there's nothing to remove)
@@ -160,40 +329,57 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 		else {
 			//If p has a child c that is a leaf then
 			if(currentNode.getLeft().isLeaf() || currentNode.getRight().isLeaf()) {
+				//Every ancestor loses one node
+				resize(parent, -1);
+
 				if (currentNode.getLeft().isLeaf())
 					//if the left is the leaf then the right is the child
 					otherChild = currentNode.getRight();
-				else if(currentNode.getRight().isLeaf()) {
+				else {
 					//if the right is the leaf then the left is the child
 					otherChild = currentNode.getLeft();
 				}
+				//The shared leaf has no parent
+				if (!otherChild.isLeaf()) {
+					otherChild.setParent(parent);
+				}
 				//If the parent is the root then make the other child the new root
 				if (parent==null) {
 					this.root = otherChild;
-					otherChild.setParent(null);
 				}
 				//Otherwise make the otherChild the child of the parent instead of the current node
 				else {
 					
 					//if the current node is the right, make otherChild the right
-					if(parent.getRight().equals(currentNode)) {
+					if(parent.getRight() == currentNode) {
 						parent.setRight(otherChild);
-						otherChild.setParent(parent);
 					}
 					//if the current node is the left, make otherChild the left
 					else {
 						parent.setLeft(otherChild);
-						otherChild.setParent(parent);
 					}
 				}
 			}
 			
 			//Case where the node to be removed is an internal node
 			else {
-				BinaryNode smallest = new BinaryNode();
-				smallest = smallestNode(currentNode.getRight());
+				//Move the smallest pixel of the right subtree up; that node has a leaf as its left child
+				BinaryNode smallest = smallestNode(currentNode.getRight());
+				BinaryNode smallestParent = smallest.getParent();
+				resize(smallestParent, -1);
 				currentNode.setData(smallest.getData());
-				remove(smallest, smallest.getData().getLocation());
+				otherChild = smallest.getRight();
+				
+				//Splice the smallest node out of the tree
+				if(smallestParent.getLeft() == smallest) {
+					smallestParent.setLeft(otherChild);
+				}
+				else {
+					smallestParent.setRight(otherChild);
+				}
+				if(!otherChild.isLeaf()) {
+					otherChild.setParent(smallestParent);
+				}
 			}
 		}
 	}
@@ -213,39 +399,21 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 	 * 		Null if no successor
 	 */
 	public Pixel successor(BinaryNode r, Location key) {
-		BinaryNode currentNode = getNode(r, key);
-		BinaryNode parent = currentNode.getParent();
-		
-		//If tree is empty or at the end return null
-		if(r.isLeaf()) {
-			return null;
-		}
+		BinaryNode currentNode = r;
+		Pixel candidate = null;
 		
-		//Otherwise 
-		else {
-			
-			//if the current node is an internal node and the right child of the current node is internal
-			if(!currentNode.isLeaf() && !currentNode.getRight().isLeaf()) {
-				//return smallest right child of the node
-				return smallest(currentNode.getRight());
+		//Walk down towards the key; every node where the search turns left is larger than the key
+		while(!currentNode.isLeaf()) {
+			if(currentNode.getData().getLocation().compareTo(key) > 0) {
+				//the smallest larger key is this one or one in its left subtree
+				candidate = currentNode.getData();
+				currentNode = currentNode.getLeft();
 			}
 			else {
-				
-				//while the current node isnt the root and the current node is the right child of the parent of the node
-				while((!currentNode.equals(r)) && (parent.getRight().equals(currentNode))) {
-					currentNode = parent;
-					parent = currentNode.getParent();
-				}
-				
-				//if the node is the root then
-				if(currentNode.equals(r)) {
-					return null;
-				}
-				else {
-					return parent.getData();
-				}
+				currentNode = currentNode.getRight();
 			}
 		}
+		return candidate;
 	}
 
 	/**
@@ -263,37 +431,21 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 	 * 		Null if no predecessor
 	 */
 	public Pixel predecessor(BinaryNode r, Location key) {
-		BinaryNode currentNode = new BinaryNode();
-		BinaryNode parent = new BinaryNode();
+		BinaryNode currentNode = r;
+		Pixel candidate = null;
 		
-		if(r.isLeaf()) {
-			return null;
-		}
-		else {
-			currentNode = getNode(r, key);
-			
-			//if the current node is an internal node and the left child of the current node is internal
-			if(!currentNode.isLeaf() && !currentNode.getLeft().isLeaf()) {
-				//return largest left child of node
-				return largest(currentNode.getLeft());
+		//Walk down towards the key; every node where the search turns right is smaller than the key
+		while(!currentNode.isLeaf()) {
+			if(currentNode.getData().getLocation().compareTo(key) < 0) {
+				//the largest smaller key is this one or one in its right subtree
+				candidate = currentNode.getData();
+				currentNode = currentNode.getRight();
 			}
 			else {
-				parent = currentNode.getParent();
-				
-				//while the current node isnt the root and the current node is the left child of the parent of the node
-				while((!currentNode.equals(r)) && (parent.getLeft().equals(currentNode))) {
-					currentNode = parent;
-					parent = currentNode.getParent();
-				}
-				//if the node is the root then
-				if(currentNode.equals(r)) {
-					return null;
-				}
-				else {
-					return parent.getData();
-				}
+				currentNode = currentNode.getLeft();
 			}
 		}
+		return candidate;
 	}
 	
 	/**
@@ -309,22 +461,21 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 	 * @throws
 	 * 		  EmptyTreeException if the tree is empty
 	 */
-	private BinaryNode smallestNode(BinaryNode r) throws EmptyTreeException{
+	protected BinaryNode smallestNode(BinaryNode r) throws EmptyTreeException{
 		
-		BinaryNode currentNode = new BinaryNode();
+		BinaryNode currentNode = r;
 		
 		//If the tree is empty throw an exception
 		if(r.isLeaf()) {
 			throw new EmptyTreeException();
 		}
 		
-		//Otherwise return the smallest node
+		//Otherwise return the smallest node, the internal node whose left child is a leaf
 		else {
-			currentNode = r;
-			while(!currentNode.isLeaf()) {
+			while(!currentNode.getLeft().isLeaf()) {
 				currentNode = currentNode.getLeft();
 			}
-			return currentNode.getParent();
+			return currentNode;
 		}
 	}
 	
@@ -341,9 +492,9 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 	 * @throws
 	 * 		  EmptyTreeException if the tree is empty
 	 */
-	private BinaryNode largestNode(BinaryNode r) throws EmptyTreeException{
+	protected BinaryNode largestNode(BinaryNode r) throws EmptyTreeException{
 		
-		BinaryNode currentNode = new BinaryNode();
+		BinaryNode currentNode = r;
 		
 		//If tree is empty throw an exception
 		if(r.isLeaf()) {
@@ -352,11 +503,10 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 		
 		//Otherwise return the largest node by traversing the tree
 		else {
-			currentNode = r;
-			while(!currentNode.isLeaf()) {
+			while(!currentNode.getRight().isLeaf()) {
 				currentNode = currentNode.getRight();
 			}
-			return currentNode.getParent();
+			return currentNode;
 		}
 	}
 	
@@ -398,6 +548,328 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 		return largestNode(r).getData();
 	}
 	
+	/**
+	 * Returns a cursor placed before the smallest pixel of the tree
+	 * 
+	 * @returns
+	 * 		  a cursor over the pixels of the tree in key order
+	 */
+	public PixelCursor cursor() {
+		return new PixelCursor(this);
+	}
+	
+	/**
+	 * Returns a cursor whose first call to next returns the pixel with the
+	 * smallest key not smaller than the given one
+	 * 
+	 * @param from
+	 * 		  the key where the walk starts
+	 * 
+	 * @returns
+	 * 		  a cursor over the pixels of the tree in key order
+	 */
+	public PixelCursor cursor(Location from) {
+		return new PixelCursor(this, ceilingNode(root, from));
+	}
+	
+	/**
+	 * Visits every pixel of the tree in increasing order of the keys until the
+	 * consumer returns false. Walks the tree through the parent links, so it uses
+	 * constant extra space whatever the shape of the tree.
+	 * 
+	 * @param consumer
+	 * 		  the visitor called with the coordinates and colour of each pixel
+	 * 
+	 * @returns
+	 * 		  true if every pixel was visited, false if the consumer stopped the walk
+	 */
+	public boolean forEach(PixelConsumer consumer) {
+		if(root.isLeaf()) {
+			return true;
+		}
+		for(BinaryNode node = smallestNode(root); !node.isLeaf(); node = nextNode(node)) {
+			Location key = node.getData().getLocation();
+			if(!consumer.accept(key.xCoord(), key.yCoord(), node.getData().getColor())) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Visits the pixels inside the rectangle with corners min and max (bounds
+	 * included) in key order, until the consumer returns false. Since keys are in
+	 * column order, the pixels of each column inside the rectangle are consecutive:
+	 * the walk visits them and then searches for the start of the next column, so
+	 * it never touches the pixels of a column above or below the rectangle.
+	 * 
+	 * @param min
+	 * 		  the corner with the smallest coordinates
+	 * @param max
+	 * 		  the corner with the largest coordinates
+	 * @param consumer
+	 * 		  the visitor called with the coordinates and colour of each pixel
+	 * 
+	 * @returns
+	 * 		  true if every pixel in the rectangle was visited, false if the consumer stopped the walk
+	 */
+	public boolean rangeQuery(Location min, Location max, PixelConsumer consumer) {
+		BinaryNode node = ceilingNode(root, min);
+		
+		while(!node.isLeaf()) {
+			Location key = node.getData().getLocation();
+			
+			//Past the last column of the rectangle
+			if(key.xCoord() > max.xCoord()) {
+				break;
+			}
+			//Below the rectangle in this column: jump to the top of this column
+			if(key.yCoord() < min.yCoord()) {
+				node = ceilingNode(root, new Location(key.xCoord(), min.yCoord()));
+			}
+			//Above the rectangle in this column: jump to the top of the next column
+			else if(key.yCoord() > max.yCoord()) {
+				if(key.xCoord() == max.xCoord()) {
+					break;
+				}
+				node = ceilingNode(root, new Location(key.xCoord() + 1, min.yCoord()));
+			}
+			else {
+				if(!consumer.accept(key.xCoord(), key.yCoord(), node.getData().getColor())) {
+					return false;
+				}
+				node = nextNode(node);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the node with the smallest key not smaller than the given one, or
+	 * a leaf if there is none
+	 * 
+	 * @param r
+	 * 		  the root of the tree
+	 * @param key
+	 * 		  the key to look for
+	 * 
+	 * @returns
+	 * 		  the node storing the key or the first larger one, a leaf if none
+	 */
+	protected BinaryNode ceilingNode(BinaryNode r, Location key) {
+		BinaryNode currentNode = r;
+		BinaryNode candidate = BinaryNode.LEAF;
+		
+		while(!currentNode.isLeaf()) {
+			int comparison = currentNode.getData().getLocation().compareTo(key);
+			if(comparison == 0) {
+				return currentNode;
+			}
+			if(comparison > 0) {
+				candidate = currentNode;
+				currentNode = currentNode.getLeft();
+			}
+			else {
+				currentNode = currentNode.getRight();
+			}
+		}
+		return candidate;
+	}
+	
+	/**
+	 * Returns the node following the given internal node in key order, found
+	 * through the parent links
+	 * 
+	 * @param node
+	 * 		  an internal node of the tree
+	 * 
+	 * @returns
+	 * 		  the next node, a leaf if node stores the largest key
+	 */
+	protected BinaryNode nextNode(BinaryNode node) {
+		
+		//The next node is the smallest one of the right subtree, if there is one
+		if(!node.getRight().isLeaf()) {
+			return smallestNode(node.getRight());
+		}
+		
+		//Otherwise it is the first ancestor reached from its left subtree
+		BinaryNode parent = node.getParent();
+		while(parent != null && parent.getRight() == node) {
+			node = parent;
+			parent = node.getParent();
+		}
+		return parent == null ? BinaryNode.LEAF : parent;
+	}
+	
+	/**
+	 * Returns the node preceding the given internal node in key order, found
+	 * through the parent links
+	 * 
+	 * @param node
+	 * 		  an internal node of the tree
+	 * 
+	 * @returns
+	 * 		  the previous node, a leaf if node stores the smallest key
+	 */
+	protected BinaryNode previousNode(BinaryNode node) {
+		
+		//The previous node is the largest one of the left subtree, if there is one
+		if(!node.getLeft().isLeaf()) {
+			return largestNode(node.getLeft());
+		}
+		
+		//Otherwise it is the first ancestor reached from its right subtree
+		BinaryNode parent = node.getParent();
+		while(parent != null && parent.getLeft() == node) {
+			node = parent;
+			parent = node.getParent();
+		}
+		return parent == null ? BinaryNode.LEAF : parent;
+	}
+	
+	/**
+	 * Returns a read-only copy of the tree with the Eytzinger layout of
+	 * FrozenPixelTree. Later changes to this tree are not reflected in the copy.
+	 * 
+	 * @returns
+	 * 		  the frozen copy
+	 */
+	public FrozenPixelTree freeze() {
+		final long[] keys = new long[size()];
+		final int[] colors = new int[size()];
+		final int[] n = new int[1];
+		
+		forEach((x, y, color) -> {
+			keys[n[0]] = Location.pack(x, y);
+			colors[n[0]++] = color;
+			return true;
+		});
+		return new FrozenPixelTree(keys, colors, n[0]);
+	}
+	
+	/**
+	 * Returns the number of pixels stored in the tree
+	 * 
+	 * @returns
+	 * 		  number of pixels
+	 */
+	public int size() {
+		return root.getSize();
+	}
+	
+	/**
+	 * Returns the number of pixels whose key is smaller than the given one (the
+	 * tree does not need to store the key)
+	 * 
+	 * @param key
+	 * 		  the key
+	 * 
+	 * @returns
+	 * 		  the number of smaller keys, which is the position of key in sorted order if it is stored
+	 */
+	public int rank(Location key) {
+		return countBelow(key, false);
+	}
+	
+	/**
+	 * Returns the pixel at the given position in increasing order of the keys,
+	 * counting from 0. Returns null if k is not between 0 and size()-1.
+	 * 
+	 * @param k
+	 * 		  the position of the pixel
+	 * 
+	 * @returns
+	 * 		  the k-th smallest pixel, null if there is none
+	 */
+	public Pixel select(int k) {
+		BinaryNode currentNode = root;
+		
+		if(k < 0 || k >= size()) {
+			return null;
+		}
+		
+		//Skip whole left subtrees using their sizes
+		while(true) {
+			int smaller = currentNode.getLeft().getSize();
+			if(k < smaller) {
+				currentNode = currentNode.getLeft();
+			}
+			else if(k == smaller) {
+				return currentNode.getData();
+			}
+			else {
+				k -= smaller + 1;
+				currentNode = currentNode.getRight();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the number of pixels whose key is between min and max in key
+	 * order, both included
+	 * 
+	 * @param min
+	 * 		  the smallest key counted
+	 * @param max
+	 * 		  the largest key counted
+	 * 
+	 * @returns
+	 * 		  the number of keys k with min <= k <= max
+	 */
+	public int countInRange(Location min, Location max) {
+		if(min.compareTo(max) > 0) {
+			return 0;
+		}
+		return countBelow(max, true) - countBelow(min, false);
+	}
+	
+	/**
+	 * Returns the number of pixels whose key is smaller than (or equal to, if
+	 * inclusive) the given one
+	 * 
+	 * @param key
+	 * 		  the key
+	 * @param inclusive
+	 * 		  true to also count the key itself
+	 * 
+	 * @returns
+	 * 		  the number of keys counted
+	 */
+	private int countBelow(Location key, boolean inclusive) {
+		BinaryNode currentNode = root;
+		int count = 0;
+		
+		while(!currentNode.isLeaf()) {
+			int comparison = currentNode.getData().getLocation().compareTo(key);
+			
+			//This node and its left subtree are counted, continue to the right
+			if(comparison < 0 || (comparison == 0 && inclusive)) {
+				count += currentNode.getLeft().getSize() + 1;
+				currentNode = currentNode.getRight();
+			}
+			else {
+				currentNode = currentNode.getLeft();
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Adds delta to the subtree size of node and of all its ancestors
+	 * 
+	 * @param node
+	 * 		  the lowest node whose subtree changed, null if none
+	 * @param delta
+	 * 		  the number of nodes added (negative when removed)
+	 */
+	protected void resize(BinaryNode node, int delta) {
+		while(node != null) {
+			node.setSize(node.getSize() + delta);
+			node = node.getParent();
+		}
+	}
+	
 	/**
 	 * Returns the root of the binary search tree
 	 * @return
@@ -406,6 +878,16 @@ public class BinarySearchTree implements BinarySearchTreeADT {
 	public BinaryNode getRoot() {
 		return root;
 	}
+	
+	/**
+	 * Replaces the root of the binary search tree. Used by subclasses that
+	 * restructure the tree (for example by rotations)
+	 * @param r
+	 * 		the new root of the binary search tree
+	 */
+	protected void setRoot(BinaryNode r) {
+		this.root = r;
+	}
 
 }
 
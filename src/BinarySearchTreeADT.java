@@ -49,4 +49,12 @@ public interface BinarySearchTreeADT {
 	 * the tree is empty.
 	 */
 	public Pixel largest(BinaryNode r) throws EmptyTreeException;
+
+	/*
+	 * Visits, in key order, the pixels whose x coordinate is between min.xCoord()
+	 * and max.xCoord() and whose y coordinate is between min.yCoord() and
+	 * max.yCoord(), bounds included, until the consumer returns false. Returns
+	 * true if every such pixel was visited.
+	 */
+	public boolean rangeQuery(Location min, Location max, PixelConsumer consumer);
 }
@@ -0,0 +1,61 @@
+/**
+ * This interface describes an index of the rectangles of the figures of a
+ * scene, used to find the few figures a moving figure could hit without
+ * testing it against all of them. The rectangle of a figure goes from its
+ * offset to its offset plus its width and height; only figures whose
+ * rectangles overlap can intersect.
+ *
+ * Figures are identified by their id, which is their index in the array of
+ * figures of the scene. The index keeps the rectangle a figure had when it was
+ * inserted or last updated, so it must be updated every time the offset of a
+ * figure changes. Queries only read the index, so several threads may query
+ * it at once as long as no figure is inserted, updated or removed meanwhile.
+ */
+public interface BroadPhase {
+
+	/**
+	 * Adds the given figure at its current offset
+	 * @param fig
+	 * 		the figure
+	 */
+	public void insert(GraphicalFigure fig);
+
+	/**
+	 * Moves the given figure to its current offset
+	 * @param fig
+	 * 		a figure in the index
+	 */
+	public void update(GraphicalFigure fig);
+
+	/**
+	 * Removes the given figure, if it is in the index
+	 * @param fig
+	 * 		the figure
+	 */
+	public void remove(GraphicalFigure fig);
+
+	/**
+	 * Returns the ids of the figures whose rectangles overlap the given one
+	 * @param x
+	 * 		x coordinate of the upper left corner of the rectangle
+	 * @param y
+	 * 		y coordinate of the upper left corner of the rectangle
+	 * @param width
+	 * 		width of the rectangle
+	 * @param height
+	 * 		height of the rectangle
+	 * @return
+	 * 		the ids, in increasing order
+	 */
+	public int[] query(int x, int y, int width, int height);
+
+	/**
+	 * Returns the ids of the other figures whose rectangles overlap the
+	 * rectangle of the given figure, as it was last inserted or updated
+	 * @param fig
+	 * 		a figure in the index
+	 * @return
+	 * 		the ids, in increasing order
+	 */
+	public int[] candidates(GraphicalFigure fig);
+}
@@ -0,0 +1,315 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class remembers the answers of recent collision tests. An answer is
+ * stored under the shapes of the two figures, the versions of those shapes
+ * and the position of one figure relative to the other, so figures moving
+ * back and forth ask the same question again and find the answer here. A
+ * test that only compared what a move changed (see
+ * GraphicalFigure.intersectsAfterMove) is stored under that move too, since
+ * its answer holds only for figures that reached that position by that
+ * move; full tests are stored under the move (0,0). When the pixels of a
+ * figure change its shape gets a new version, so the answers stored for the
+ * old one are never found again and age out of the cache.
+ *
+ * The cache holds as many answers as fit in the memory budget given to the
+ * constructor. It counts hits, misses and evictions so its size can be
+ * tuned. All methods can be called from several threads: the answers are
+ * split by the hash of their key into stripes, each with its own lock and
+ * its own share of the budget, so threads testing different pairs rarely
+ * wait for each other. When a stripe is full, its least recently used
+ * answer is evicted. A small cache has a single stripe and is exactly least
+ * recently used.
+ */
+public final class CollisionCache {
+
+	/**
+	 * Estimated bytes used by one answer: the key, the map entry and its share
+	 * of the hash table
+	 */
+	public static final int ENTRY_BYTES = 104;
+
+	/**
+	 * Most stripes a cache is split into, and fewest answers a stripe holds
+	 * when there is more than one
+	 */
+	private static final int MAX_STRIPES = 64;
+	private static final int MIN_STRIPE_ANSWERS = 256;
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final Stripe[] stripes; // A power of two of them
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * A constructor for a cache whose answers use at most the given memory
+	 * @param budget
+	 * 		bytes the answers may use
+	 */
+	public CollisionCache(long budget) {
+		this(budget, stripesFor(budget / ENTRY_BYTES));
+	}
+
+	/**
+	 * A constructor for a cache whose answers use at most the given memory,
+	 * split into the given number of stripes
+	 * @param budget
+	 * 		bytes the answers may use
+	 * @param numStripes
+	 * 		number of stripes, a power of two
+	 */
+	CollisionCache(long budget, int numStripes) {
+		if (numStripes <= 0 || Integer.bitCount(numStripes) != 1) {
+			throw new IllegalArgumentException("Number of stripes " + numStripes + " is not a power of two");
+		}
+		long capacity = Math.min(Integer.MAX_VALUE, budget / ENTRY_BYTES); // Answers that fit in the budget
+		stripes = new Stripe[numStripes];
+		for (int i = 0; i < numStripes; ++i) {
+			stripes[i] = new Stripe((int) (capacity / numStripes + (i < capacity % numStripes ? 1 : 0)));
+		}
+	}
+
+	/**
+	 * Helper method that returns the number of stripes for a cache of the given capacity
+	 */
+	private static int stripesFor(long capacity) {
+		int n = 1;
+		while (n < MAX_STRIPES && capacity / (2 * n) >= MIN_STRIPE_ANSWERS) {
+			n *= 2;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the stored answer of the test between shape a at version
+	 * versionA and shape b at version versionB, with the pixel (x,y) of a on
+	 * top of the pixel (x+dx,y+dy) of b, or null if there is none
+	 * @param a
+	 * 		the first shape, compared by identity
+	 * @param versionA
+	 * 		version of the first shape
+	 * @param b
+	 * 		the second shape, compared by identity
+	 * @param versionB
+	 * 		version of the second shape
+	 * @param dx
+	 * 		x distance from a to b
+	 * @param dy
+	 * 		y distance from a to b
+	 * @param moveX
+	 * 		x distance a moved by, for a test of that move only; 0 for a full test
+	 * @param moveY
+	 * 		y distance a moved by, for a test of that move only; 0 for a full test
+	 * @return
+	 * 		true if the shapes intersect, false if not, null if not known
+	 */
+	public Boolean get(Object a, int versionA, Object b, int versionB, int dx, int dy, int moveX, int moveY) {
+		Key key = new Key(a, versionA, b, versionB, dx, dy, moveX, moveY);
+		Boolean answer = stripe(key).get(key);
+		if (answer == null) {
+			misses.increment();
+		}
+		else {
+			hits.increment();
+		}
+		return answer;
+	}
+
+	/**
+	 * Stores the answer of the test between shape a at version versionA and
+	 * shape b at version versionB, with the pixel (x,y) of a on top of the
+	 * pixel (x+dx,y+dy) of b
+	 * @param a
+	 * 		the first shape, compared by identity
+	 * @param versionA
+	 * 		version of the first shape
+	 * @param b
+	 * 		the second shape, compared by identity
+	 * @param versionB
+	 * 		version of the second shape
+	 * @param dx
+	 * 		x distance from a to b
+	 * @param dy
+	 * 		y distance from a to b
+	 * @param moveX
+	 * 		x distance a moved by, for a test of that move only; 0 for a full test
+	 * @param moveY
+	 * 		y distance a moved by, for a test of that move only; 0 for a full test
+	 * @param hit
+	 * 		true if the shapes intersect
+	 */
+	public void put(Object a, int versionA, Object b, int versionB, int dx, int dy, int moveX, int moveY,
+			boolean hit) {
+		Key key = new Key(a, versionA, b, versionB, dx, dy, moveX, moveY);
+		stripe(key).put(key, hit);
+	}
+
+	/**
+	 * Returns the number of answers stored
+	 * @return
+	 * 		number of answers
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the estimated bytes used by the answers stored
+	 * @return
+	 * 		bytes used
+	 */
+	public long getBytesUsed() {
+		return (long) size() * ENTRY_BYTES;
+	}
+
+	/**
+	 * Returns the number of tests whose answer was found
+	 * @return
+	 * 		number of hits
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Returns the number of tests whose answer was not found
+	 * @return
+	 * 		number of misses
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of answers evicted to make room for others
+	 * @return
+	 * 		number of evictions
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Returns the number of stripes the answers are split into
+	 * @return
+	 * 		number of stripes
+	 */
+	public int getStripeCount() {
+		return stripes.length;
+	}
+
+	/**
+	 * Removes every answer and sets the counters back to 0
+	 */
+	public void clear() {
+		for (Stripe stripe : stripes) {
+			stripe.clear();
+		}
+		hits.reset();
+		misses.reset();
+		evictions.reset();
+	}
+
+	/**
+	 * Helper method that returns the stripe holding the given key
+	 */
+	private Stripe stripe(Key key) {
+		//The top bits of the mixed hash, since each stripe's table uses the bottom ones
+		return stripes[(int) ((key.hashCode() * 0x9E3779B97F4A7C15L) >>> 32) & (stripes.length - 1)];
+	}
+
+	/**
+	 * Part of the answers, least recently used first, behind its own lock
+	 */
+	private final class Stripe {
+		private final LinkedHashMap<Key, Boolean> answers;
+
+		Stripe(final int capacity) {
+			answers = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+					if (size() > capacity) {
+						evictions.increment();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		synchronized Boolean get(Key key) {
+			return answers.get(key);
+		}
+
+		synchronized void put(Key key, boolean answer) {
+			answers.put(key, answer);
+		}
+
+		synchronized int size() {
+			return answers.size();
+		}
+
+		synchronized void clear() {
+			answers.clear();
+		}
+	}
+
+	/**
+	 * Key of an answer: two shapes compared by identity, their versions, the
+	 * distance between them and the move that was tested
+	 */
+	private static final class Key {
+		private final Object a;
+		private final Object b;
+		private final int versionA;
+		private final int versionB;
+		private final int dx;
+		private final int dy;
+		private final int moveX;
+		private final int moveY;
+
+		Key(Object a, int versionA, Object b, int versionB, int dx, int dy, int moveX, int moveY) {
+			this.a = a;
+			this.b = b;
+			this.versionA = versionA;
+			this.versionB = versionB;
+			this.dx = dx;
+			this.dy = dy;
+			this.moveX = moveX;
+			this.moveY = moveY;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return key.a == a && key.b == b && key.versionA == versionA && key.versionB == versionB
+					&& key.dx == dx && key.dy == dy && key.moveX == moveX && key.moveY == moveY;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(a);
+			hash = 31 * hash + System.identityHashCode(b);
+			hash = 31 * hash + versionA;
+			hash = 31 * hash + versionB;
+			hash = 31 * hash + dx;
+			hash = 31 * hash + dy;
+			hash = 31 * hash + moveX;
+			return 31 * hash + moveY;
+		}
+	}
+}
@@ -0,0 +1,359 @@
+import java.util.Arrays;
+
+/**
+ * This class stores which pixels of a figure are opaque as one bit per pixel.
+ * Each row of the figure takes (width + 63) / 64 words of a single long array,
+ * with bit x % 64 of word x / 64 of a row set when the figure has the pixel
+ * (x,y). Two figures overlap if, for some row, a word of one of them ANDed with
+ * the bits of the other shifted by the distance between the figures is not 0,
+ * so a collision test reads each row of the overlap 64 pixels at a time.
+ */
+public final class CollisionMask {
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final int width;
+	private final int height;
+	private final int stride; // Words per row
+	private final long[] words;
+	private int version; // Number of pixels set so far
+
+	/**
+	 * A constructor that creates an empty mask for a figure of the given size
+	 * @param width
+	 * 		width of the figure
+	 * @param height
+	 * 		height of the figure
+	 */
+	public CollisionMask(int width, int height) {
+		this.width = Math.max(width, 0);
+		this.height = Math.max(height, 0);
+		this.stride = (this.width + 63) >>> 6;
+		this.words = new long[stride * this.height];
+	}
+
+	/**
+	 * A constructor that copies the given mask
+	 * @param other
+	 * 		the mask to copy
+	 */
+	public CollisionMask(CollisionMask other) {
+		this.width = other.width;
+		this.height = other.height;
+		this.stride = other.stride;
+		this.words = other.words.clone();
+	}
+
+	/**
+	 * A constructor for a mask of the given size whose rows are the given
+	 * words, as returned by getWords
+	 * @param width
+	 * 		width of the figure
+	 * @param height
+	 * 		height of the figure
+	 * @param words
+	 * 		(width + 63) / 64 words per row; the mask keeps the array
+	 */
+	public CollisionMask(int width, int height, long[] words) {
+		this.width = Math.max(width, 0);
+		this.height = Math.max(height, 0);
+		this.stride = (this.width + 63) >>> 6;
+		if (words.length != stride * this.height) {
+			throw new IllegalArgumentException("Expected " + stride * this.height + " words, got " + words.length);
+		}
+		this.words = words;
+		for (long word : words) {
+			version += Long.bitCount(word);
+		}
+	}
+
+	/**
+	 * Returns the width of the mask
+	 * @return
+	 * 		width of the figure
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the mask
+	 * @return
+	 * 		height of the figure
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the words of the mask, row by row, with (width + 63) / 64 words
+	 * per row
+	 * @return
+	 * 		the words, which must not be changed
+	 */
+	public long[] getWords() {
+		return words;
+	}
+
+	/**
+	 * Returns a number that changes every time a pixel is set
+	 * @return
+	 * 		version of the mask
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns true if (x,y) is inside the rectangle covered by the mask
+	 * @param x
+	 * 		x coordinate of the pixel
+	 * @param y
+	 * 		y coordinate of the pixel
+	 * @return
+	 * 		true if the mask has a bit for (x,y)
+	 */
+	public boolean covers(int x, int y) {
+		return x >= 0 && y >= 0 && x < width && y < height;
+	}
+
+	/**
+	 * Marks the pixel (x,y) as opaque. It must be covered by the mask.
+	 * @param x
+	 * 		x coordinate of the pixel
+	 * @param y
+	 * 		y coordinate of the pixel
+	 */
+	public void set(int x, int y) {
+		words[y * stride + (x >>> 6)] |= 1L << x;
+		++version;
+	}
+
+	/**
+	 * Returns true if the pixel (x,y) is opaque
+	 * @param x
+	 * 		x coordinate of the pixel
+	 * @param y
+	 * 		y coordinate of the pixel
+	 * @return
+	 * 		true if the mask has the pixel
+	 */
+	public boolean get(int x, int y) {
+		return covers(x, y) && (words[y * stride + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Returns true if this mask and the given one have a pixel in common when
+	 * the pixel (x,y) of this mask is on top of the pixel (x+dx,y+dy) of the
+	 * other. Only the rows and columns from (fromX,fromY) to (toX,toY) of this
+	 * mask are compared, rounded out to whole words.
+	 * @param other
+	 * 		the mask of the other figure
+	 * @param dx
+	 * 		x distance from this mask to the other one
+	 * @param dy
+	 * 		y distance from this mask to the other one
+	 * @param fromX
+	 * 		smallest x coordinate to compare, in this mask
+	 * @param fromY
+	 * 		smallest y coordinate to compare, in this mask
+	 * @param toX
+	 * 		largest x coordinate to compare, in this mask
+	 * @param toY
+	 * 		largest y coordinate to compare, in this mask
+	 * @return
+	 * 		true if the masks overlap
+	 */
+	public boolean intersects(CollisionMask other, int dx, int dy, int fromX, int fromY, int toX, int toY) {
+
+		//Keep to the rows and columns both masks cover
+		fromX = Math.max(Math.max(fromX, 0), -dx);
+		fromY = Math.max(Math.max(fromY, 0), -dy);
+		toX = Math.min(Math.min(toX, width - 1), other.width - 1 - dx);
+		toY = Math.min(Math.min(toY, height - 1), other.height - 1 - dy);
+		if (fromX > toX || fromY > toY) {
+			return false;
+		}
+
+		for (int y = fromY; y <= toY; ++y) {
+			if (rowIntersects(other, y, dx, dy, fromX, toX)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if row y of this mask and row y+dy of the given one have a
+	 * pixel in common between the columns fromX and toX of this mask, which
+	 * must be covered by both masks
+	 * @param other
+	 * 		the mask of the other figure
+	 * @param y
+	 * 		row of this mask
+	 * @param dx
+	 * 		x distance from this mask to the other one
+	 * @param dy
+	 * 		y distance from this mask to the other one
+	 * @param fromX
+	 * 		smallest x coordinate to compare, in this mask
+	 * @param toX
+	 * 		largest x coordinate to compare, in this mask
+	 * @return
+	 * 		true if the rows overlap
+	 */
+	public boolean rowIntersects(CollisionMask other, int y, int dx, int dy, int fromX, int toX) {
+		int row = y * stride;
+		int otherRow = (y + dy) * other.stride;
+
+		//Walk the words of the other mask, lining up the bits of this one with them
+		for (int word = (fromX + dx) >>> 6; word <= (toX + dx) >>> 6; ++word) {
+			if ((other.words[otherRow + word] & bitsAt(row, (word << 6) - dx)) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the mask has a pixel in row y between the columns fromX
+	 * and toX
+	 * @param y
+	 * 		the row
+	 * @param fromX
+	 * 		smallest x coordinate
+	 * @param toX
+	 * 		largest x coordinate
+	 * @return
+	 * 		true if one of the pixels is in the mask
+	 */
+	public boolean anySet(int y, int fromX, int toX) {
+		fromX = Math.max(fromX, 0);
+		toX = Math.min(toX, width - 1);
+		if (y < 0 || y >= height || fromX > toX) {
+			return false;
+		}
+		int row = y * stride;
+		int first = fromX >>> 6;
+		int last = toX >>> 6;
+		long firstBits = -1L << fromX;
+		long lastBits = -1L >>> (63 - (toX & 63));
+		if (first == last) {
+			return (words[row + first] & firstBits & lastBits) != 0;
+		}
+		if ((words[row + first] & firstBits) != 0 || (words[row + last] & lastBits) != 0) {
+			return true;
+		}
+		for (int word = first + 1; word < last; ++word) {
+			if (words[row + word] != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the mask of the pixels (x,y) of this mask for which (x+dx,y+dy)
+	 * is not in this mask. When the figure moves by (dx,dy) these are the
+	 * pixels that land where the figure was not before: its leading edge.
+	 * @param dx
+	 * 		x distance to the pixel that must be missing
+	 * @param dy
+	 * 		y distance to the pixel that must be missing
+	 * @return
+	 * 		the mask of the edge
+	 */
+	public CollisionMask edge(int dx, int dy) {
+		CollisionMask edge = new CollisionMask(width, height);
+
+		for (int y = 0; y < height; ++y) {
+			int row = y * stride;
+			boolean shifted = y + dy >= 0 && y + dy < height;
+			for (int word = 0; word < stride; ++word) {
+				long bits = words[row + word];
+				if (shifted) {
+					bits &= ~bitsAt((y + dy) * stride, (word << 6) + dx);
+				}
+				edge.words[row + word] = bits;
+			}
+		}
+		return edge;
+	}
+
+	/**
+	 * Returns the runs of consecutive pixels in each row of this mask
+	 * @return
+	 * 		the shape of this mask as runs
+	 */
+	public SpanShape toSpans() {
+		int[] rowStart = new int[height + 1];
+		int[] runs = new int[16];
+		int n = 0;
+
+		for (int y = 0; y < height; ++y) {
+			rowStart[y] = n;
+			int x = nextBit(y, 0, 0);
+			while (x < width) {
+				int end = nextBit(y, x, -1);
+				if (n + 2 > runs.length) {
+					runs = Arrays.copyOf(runs, 2 * runs.length);
+				}
+				runs[n++] = x;
+				runs[n++] = end;
+				x = nextBit(y, end, 0);
+			}
+		}
+		rowStart[height] = n;
+		return new SpanShape(rowStart, Arrays.copyOf(runs, n));
+	}
+
+	/**
+	 * Returns the first column from x on whose bit in row y differs from the
+	 * given fill, or width if there is none
+	 * @param y
+	 * 		the row
+	 * @param x
+	 * 		first column to look at
+	 * @param fill
+	 * 		0 to find a set bit, -1 to find a clear one
+	 * @return
+	 * 		the column found, or width
+	 */
+	private int nextBit(int y, int x, long fill) {
+		if (x >= width) {
+			return width;
+		}
+		int row = y * stride;
+		int word = x >>> 6;
+		long bits = (words[row + word] ^ fill) & (-1L << x);
+		while (bits == 0) {
+			if (++word == stride) {
+				return width;
+			}
+			bits = words[row + word] ^ fill;
+		}
+		return Math.min((word << 6) + Long.numberOfTrailingZeros(bits), width);
+	}
+
+	/**
+	 * Returns the 64 bits of a row starting at column start, which may be
+	 * outside the mask; columns outside the mask read as 0
+	 * @param row
+	 * 		index of the first word of the row
+	 * @param start
+	 * 		first column
+	 * @return
+	 * 		bit i is the bit of column start + i
+	 */
+	private long bitsAt(int row, int start) {
+		int word = start >> 6;
+		int shift = start & 63;
+		long low = word >= 0 && word < stride ? words[row + word] : 0;
+		if (shift == 0) {
+			return low;
+		}
+		long high = word + 1 >= 0 && word + 1 < stride ? words[row + word + 1] : 0;
+		return (low >>> shift) | (high << (64 - shift));
+	}
+}
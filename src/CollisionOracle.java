@@ -0,0 +1,240 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class answers collision tests between two collision masks with one bit
+ * lookup. For each pair of masks it is asked about, it computes once the table
+ * of every relative position at which the two masks have a pixel in common
+ * (the Minkowski difference of the two shapes). A pair of masks of sizes
+ * w1 x h1 and w2 x h2 needs (w1 + w2 - 1) x (h1 + h2 - 1) bits.
+ *
+ * A table is built the first time its pair is asked about, on the thread
+ * asking, which may be the event thread: building it tests the two masks at
+ * every relative position, O((w1 + w2) x (h1 + h2)) mask tests, so the first
+ * question about a pair of large masks is much slower than the next ones.
+ *
+ * The tables stay within the memory budget given to the constructor: when a
+ * new table does not fit, the least recently used tables are dropped and
+ * their memory freed, so tables of masks that are no longer used, such as
+ * those replaced by snapshots, make room for new ones. Only a table larger
+ * than the whole budget is refused, and its pair gets UNKNOWN and must be
+ * compared some other way. A table belongs to the two mask objects, so
+ * figures sharing a mask share its tables, and it is rebuilt when either
+ * mask has changed since. The oracle can be used from several threads; the
+ * tables are built outside its lock.
+ */
+public final class CollisionOracle {
+
+	/**
+	 * Answers of intersects
+	 */
+	public static final int UNKNOWN = -1; // The pair has no table
+	public static final int MISS = 0;
+	public static final int HIT = 1;
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final long budget; // Bytes the tables may use
+	private long used; // Guarded by tables
+	private final AtomicLong refused = new AtomicLong(); // Tables not built for lack of budget
+	private final AtomicLong evictions = new AtomicLong(); // Tables dropped to make room for others
+	private final LinkedHashMap<Pair, Table> tables = new LinkedHashMap<Pair, Table>(16, 0.75f, true); // Least recently used first
+
+	/**
+	 * A constructor for an oracle whose tables use at most the given memory
+	 * @param budget
+	 * 		bytes the tables may use
+	 */
+	public CollisionOracle(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Returns HIT if mask a and mask b have a pixel in common when the pixel
+	 * (x,y) of a is on top of the pixel (x+dx,y+dy) of b, MISS if they do not
+	 * and UNKNOWN if the table of the pair would not fit in the whole budget
+	 * @param a
+	 * 		the first mask
+	 * @param b
+	 * 		the second mask
+	 * @param dx
+	 * 		x distance from a to b
+	 * @param dy
+	 * 		y distance from a to b
+	 * @return
+	 * 		HIT, MISS or UNKNOWN
+	 */
+	public int intersects(CollisionMask a, CollisionMask b, int dx, int dy) {
+		Pair pair = new Pair(a, b);
+		Table table;
+		synchronized (tables) {
+			table = tables.get(pair);
+		}
+
+		if (table == null || table.versionA != a.getVersion() || table.versionB != b.getVersion()) {
+			table = build(pair);
+			if (table == null) {
+				return UNKNOWN;
+			}
+		}
+		return table.get(dx, dy) ? HIT : MISS;
+	}
+
+	/**
+	 * Returns the number of tables built
+	 * @return
+	 * 		number of tables
+	 */
+	public int getTableCount() {
+		synchronized (tables) {
+			return tables.size();
+		}
+	}
+
+	/**
+	 * Returns the bytes used by the tables
+	 * @return
+	 * 		bytes used
+	 */
+	public long getBytesUsed() {
+		synchronized (tables) {
+			return used;
+		}
+	}
+
+	/**
+	 * Returns the number of times a table was not built because it did not fit
+	 * in the budget
+	 * @return
+	 * 		number of tables refused
+	 */
+	public long getRefused() {
+		return refused.get();
+	}
+
+	/**
+	 * Returns the number of tables dropped to make room for others
+	 * @return
+	 * 		number of tables evicted
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Removes every table
+	 */
+	public void clear() {
+		synchronized (tables) {
+			tables.clear();
+			used = 0;
+		}
+	}
+
+	/**
+	 * Builds the table of the given pair and stores it in place of the stale
+	 * one, if any, dropping the least recently used tables until it fits
+	 * @param pair
+	 * 		the two masks
+	 * @return
+	 * 		the table, or null if it is larger than the budget
+	 */
+	private Table build(Pair pair) {
+		CollisionMask a = pair.a;
+		CollisionMask b = pair.b;
+		int columns = a.getWidth() + b.getWidth() - 1;
+		int rows = a.getHeight() + b.getHeight() - 1;
+		long bytes = 8L * (((long) columns * rows + 63) >>> 6);
+		if (bytes > budget || columns <= 0 || rows <= 0) {
+			refused.incrementAndGet();
+			return null;
+		}
+
+		//Built without the lock, so threads testing other pairs do not wait; two threads may both build it
+		Table table = new Table(a, b, columns, rows, bytes);
+		synchronized (tables) {
+			Table stale = tables.put(pair, table);
+			if (stale != null) {
+				used -= stale.bytes;
+			}
+			used += bytes;
+			Iterator<Table> eldest = tables.values().iterator();
+			while (used > budget) {
+				Table dropped = eldest.next(); // The new table is last, and fits alone
+				eldest.remove();
+				used -= dropped.bytes;
+				evictions.incrementAndGet();
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Key of a table: the two masks, compared by identity
+	 */
+	private static final class Pair {
+		private final CollisionMask a;
+		private final CollisionMask b;
+
+		Pair(CollisionMask a, CollisionMask b) {
+			this.a = a;
+			this.b = b;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Pair && ((Pair) other).a == a && ((Pair) other).b == b;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(a) + System.identityHashCode(b);
+		}
+	}
+
+	/**
+	 * Bits of the relative positions at which two masks have a pixel in common
+	 */
+	private static final class Table {
+		private final int versionA; // Versions of the masks the table was built from
+		private final int versionB;
+		private final int left; // Smallest dx, negated
+		private final int top; // Smallest dy, negated
+		private final int columns;
+		private final int rows;
+		private final long bytes;
+		private final long[] bits;
+
+		Table(CollisionMask a, CollisionMask b, int columns, int rows, long bytes) {
+			this.versionA = a.getVersion();
+			this.versionB = b.getVersion();
+			this.left = a.getWidth() - 1;
+			this.top = a.getHeight() - 1;
+			this.columns = columns;
+			this.rows = rows;
+			this.bytes = bytes;
+			this.bits = new long[(int) (bytes / 8)];
+
+			for (int dy = -top; dy < rows - top; ++dy) {
+				for (int dx = -left; dx < columns - left; ++dx) {
+					if (a.intersects(b, dx, dy, 0, 0, a.getWidth() - 1, a.getHeight() - 1)) {
+						int index = (dy + top) * columns + dx + left;
+						bits[index >>> 6] |= 1L << index;
+					}
+				}
+			}
+		}
+
+		boolean get(int dx, int dy) {
+			int column = dx + left;
+			int row = dy + top;
+			if (column < 0 || row < 0 || column >= columns || row >= rows) {
+				return false;
+			}
+			int index = row * columns + column;
+			return (bits[index >>> 6] & (1L << index)) != 0;
+		}
+	}
+}
@@ -0,0 +1,122 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts how GraphicalFigure.intersects answers its collision
+ * tests. Each test ends in one tier: the rectangles of the figures do not
+ * overlap (box), their pixel rectangles do not overlap (bounds), the
+ * CollisionOracle has a table for their masks (table), the CollisionCache
+ * has the answer (cache), their collision masks or runs are compared (mask),
+ * or the pixels of the smaller figure inside the overlap are looked up in the
+ * other one (walk). For each tier it counts the
+ * tests it answered and the pixel probes it saved, taking as the cost of a
+ * test without tiers one probe for every pixel of the figure that intersects
+ * was called on.
+ *
+ * Counting is off by default, so intersects pays nothing for it; it is meant
+ * to be switched on by benchmarks. The counters can be updated from several
+ * threads.
+ */
+public final class CollisionStats {
+
+	/**
+	 * Tiers of the collision test, in the order they are tried
+	 */
+	public static final int BOX = 0;
+	public static final int BOUNDS = 1;
+	public static final int TABLE = 2;
+	public static final int CACHE = 3;
+	public static final int MASK = 4;
+	public static final int WALK = 5;
+
+	private static final String[] NAMES = {"box", "bounds", "table", "cache", "mask", "walk"};
+
+	/**
+	 * Declaration of class variables
+	 */
+	private static volatile boolean enabled;
+	private static final LongAdder[] tests = new LongAdder[NAMES.length];
+	private static final LongAdder[] saved = new LongAdder[NAMES.length];
+
+	static {
+		for (int tier = BOX; tier <= WALK; ++tier) {
+			tests[tier] = new LongAdder();
+			saved[tier] = new LongAdder();
+		}
+	}
+
+	private CollisionStats() {
+	}
+
+	/**
+	 * Returns true if collision tests are being counted
+	 * @return
+	 * 		true if counting is on
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Switches counting on or off
+	 * @param on
+	 * 		true to count collision tests
+	 */
+	public static void setEnabled(boolean on) {
+		enabled = on;
+	}
+
+	/**
+	 * Sets every counter back to 0
+	 */
+	public static void reset() {
+		for (int tier = BOX; tier <= WALK; ++tier) {
+			tests[tier].reset();
+			saved[tier].reset();
+		}
+	}
+
+	/**
+	 * Records a test answered by the given tier
+	 * @param tier
+	 * 		the tier that answered the test
+	 * @param probesSaved
+	 * 		pixel probes not done compared to a test without tiers
+	 */
+	public static void record(int tier, long probesSaved) {
+		tests[tier].increment();
+		saved[tier].add(probesSaved);
+	}
+
+	/**
+	 * Returns the number of tests answered by the given tier
+	 * @param tier
+	 * 		one of BOX, BOUNDS, TABLE, CACHE, MASK and WALK
+	 * @return
+	 * 		number of tests
+	 */
+	public static long getTests(int tier) {
+		return tests[tier].sum();
+	}
+
+	/**
+	 * Returns the number of pixel probes saved by the given tier
+	 * @param tier
+	 * 		one of BOX, BOUNDS, TABLE, CACHE, MASK and WALK
+	 * @return
+	 * 		number of probes saved
+	 */
+	public static long getSaved(int tier) {
+		return saved[tier].sum();
+	}
+
+	/**
+	 * Returns the name of the given tier
+	 * @param tier
+	 * 		one of BOX, BOUNDS, TABLE, CACHE, MASK and WALK
+	 * @return
+	 * 		name of the tier
+	 */
+	public static String getName(int tier) {
+		return NAMES[tier];
+	}
+}
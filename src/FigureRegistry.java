@@ -0,0 +1,121 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * This class stores the figures of a scene with the sprites that draw and
+ * erase them. The id of every figure is its index, so a figure and its
+ * sprites are found without a search. The arrays double when they are full,
+ * so a scene can have any number of figures.
+ */
+public final class FigureRegistry {
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private GraphicalFigure[] figures = new GraphicalFigure[16];
+	private BufferedImage[] images = new BufferedImage[16]; // Sprites drawing the figures
+	private BufferedImage[] erased = new BufferedImage[16]; // Sprites erasing the figures
+	private int size;
+
+	/**
+	 * Adds a figure
+	 * @param fig
+	 * 		the figure, whose id must be the number of figures added before it
+	 * @param image
+	 * 		sprite drawing the figure
+	 * @param erasing
+	 * 		sprite erasing the figure
+	 * @return
+	 * 		the index of the figure
+	 */
+	public int add(GraphicalFigure fig, BufferedImage image, BufferedImage erasing) {
+		if (fig.getId() != size) {
+			throw new IllegalArgumentException("Figure " + fig.getId() + " added as figure " + size);
+		}
+		if (size == figures.length) {
+			figures = Arrays.copyOf(figures, 2 * size);
+			images = Arrays.copyOf(images, 2 * size);
+			erased = Arrays.copyOf(erased, 2 * size);
+		}
+		figures[size] = fig;
+		images[size] = image;
+		erased[size] = erasing;
+		return size++;
+	}
+
+	/**
+	 * Returns the number of figures
+	 * @return
+	 * 		number of figures
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the figure with the given index
+	 * @param i
+	 * 		index of the figure
+	 * @return
+	 * 		the figure
+	 */
+	public GraphicalFigure get(int i) {
+		check(i);
+		return figures[i];
+	}
+
+	/**
+	 * Returns the sprite drawing the figure with the given index
+	 * @param i
+	 * 		index of the figure
+	 * @return
+	 * 		the sprite
+	 */
+	public BufferedImage getImage(int i) {
+		check(i);
+		return images[i];
+	}
+
+	/**
+	 * Returns the sprite erasing the figure with the given index
+	 * @param i
+	 * 		index of the figure
+	 * @return
+	 * 		the sprite
+	 */
+	public BufferedImage getErased(int i) {
+		check(i);
+		return erased[i];
+	}
+
+	/**
+	 * Returns the index of the given figure, or -1 if it is not stored here
+	 * @param fig
+	 * 		the figure
+	 * @return
+	 * 		index of the figure, -1 if not found
+	 */
+	public int indexOf(GraphicalFigure fig) {
+		int i = fig.getId();
+		return i >= 0 && i < size && figures[i] == fig ? i : -1;
+	}
+
+	/**
+	 * Returns the array the figures are stored in; its first size() entries
+	 * are the figures. Adding figures may replace the array.
+	 * @return
+	 * 		the figures
+	 */
+	public GraphicalFigure[] getFigures() {
+		return figures;
+	}
+
+	/**
+	 * Helper method that throws IndexOutOfBoundsException if i is not the index of a figure
+	 */
+	private void check(int i) {
+		if (i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("No figure " + i + ", there are " + size);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * This class is a read-only copy of a pixel tree laid out for fast lookups.
+ * The packed keys (see Location.pack) are stored in one array in Eytzinger
+ * order: the root at index 1 and the children of the node at index i at 2i
+ * and 2i+1. A search reads consecutive levels from the start of the array,
+ * so the top levels share a few cache lines, and the loop has no unpredictable
+ * branch: each step only computes the index of the next node to read.
+ *
+ * Node indices start at 1; NIL (0) means the key is not in the tree.
+ */
+public final class FrozenPixelTree {
+
+	/**
+	 * Index returned when a key is not in the tree
+	 */
+	public static final int NIL = 0;
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final long[] keys;
+	private final int[] colors;
+	private final int size;
+
+	/**
+	 * A constructor that lays out the first n sorted keys and their colours
+	 * @param sortedKeys
+	 * 		the packed keys in increasing order
+	 * @param sortedColors
+	 * 		the colour of each key
+	 * @param n
+	 * 		the number of pixels
+	 */
+	public FrozenPixelTree(long[] sortedKeys, int[] sortedColors, int n) {
+		this.size = n;
+		this.keys = new long[n + 1];
+		this.colors = new int[n + 1];
+		layout(sortedKeys, sortedColors, 0, 1);
+	}
+
+	/**
+	 * Returns the number of pixels stored in the tree
+	 * @return
+	 * 		number of pixels
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the node storing the pixel at (x,y), if it is stored in the
+	 * tree. Returns NIL otherwise.
+	 * @param x
+	 * 		x coordinate of the key
+	 * @param y
+	 * 		y coordinate of the key
+	 * @return
+	 * 		index of the node storing the key, NIL if not in tree
+	 */
+	public int get(int x, int y) {
+		long key = Location.pack(x, y);
+		int node = 1;
+
+		//Descend to below a leaf, going right whenever the node is smaller than the key
+		while (node <= size) {
+			node = 2 * node + (keys[node] < key ? 1 : 0);
+		}
+
+		//The last left turn was at the smallest key not smaller than the one searched
+		node >>>= Integer.numberOfTrailingZeros(~node) + 1;
+		return node != NIL && keys[node] == key ? node : NIL;
+	}
+
+	/**
+	 * Returns true if the tree stores a pixel at (x,y)
+	 * @param x
+	 * 		x coordinate of the key
+	 * @param y
+	 * 		y coordinate of the key
+	 * @return
+	 * 		true if the pixel is in the tree
+	 */
+	public boolean contains(int x, int y) {
+		return get(x, y) != NIL;
+	}
+
+	/**
+	 * Returns the colour of the pixel stored in the given node
+	 * @param node
+	 * 		index of the node
+	 * @return
+	 * 		colour of the pixel
+	 */
+	public int getColor(int node) {
+		return colors[node];
+	}
+
+	/**
+	 * Copies the sorted keys into the subtree rooted at node, in order
+	 * @param sortedKeys
+	 * 		the packed keys in increasing order
+	 * @param sortedColors
+	 * 		the colour of each key
+	 * @param next
+	 * 		index of the next sorted key to place
+	 * @param node
+	 * 		index of the root of the subtree
+	 * @return
+	 * 		index of the next sorted key after filling the subtree
+	 */
+	private int layout(long[] sortedKeys, int[] sortedColors, int next, int node) {
+		if (node <= size) {
+			next = layout(sortedKeys, sortedColors, next, 2 * node);
+			keys[node] = sortedKeys[next];
+			colors[node] = sortedColors[next];
+			next = layout(sortedKeys, sortedColors, next + 1, 2 * node + 1);
+		}
+		return next;
+	}
+}
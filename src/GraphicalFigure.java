@@ -1,3 +1,6 @@
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * This class contains getters and setters for the graphical components of the figures
  * 
@@ -7,26 +10,172 @@
 
 public class GraphicalFigure implements GraphicalFigureADT {
 
+	/**
+	 * Storage options for the pixels of a figure
+	 */
+	public static final int PLAIN_TREE = 0; // Binary search tree, balanced only by insertion order
+	public static final int BALANCED_TREE = 1; // Red-black tree, balanced for any insertion order
+	public static final int PACKED_TREE = 2; // Tree stored in primitive arrays, no object per pixel
+	public static final int PERSISTENT_TREE = 3; // Immutable versions, so snapshots share the pixels instead of copying them
+	
 	/**
 	 * Declaration of class instance variables
 	 */
+	private static volatile CollisionOracle oracle; // Tables of collisions shared by all figures, null if not used
+	private static volatile CollisionCache cache; // Recent collision answers shared by all figures, null if not used
+	
 	private int id;
 	private int width;
 	private int height;
 	private String type;
 	private Location pos;
-	private BinarySearchTree tree;
+	private BinarySearchTree tree; // Pixels of the figure, null when they are in packed or persistent
+	private PackedPixelTree packed;
+	private volatile PersistentPixelTree persistent; // Current version, replaced by every addPixel
+	private FrozenPixelTree frozen; // Read-only copy used by findPixel, dropped by addPixel
+	private CollisionMask mask; // Opaque pixels as bits, null once a pixel falls outside width x height
+	private ConcurrentHashMap<Long, SpanShape> edges = new ConcurrentHashMap<Long, SpanShape>(); // Leading edges by move, see intersectsAfterMove
+	private SpanShape spans; // Runs of pixels per row, built by freeze and dropped by addPixel
+	private boolean outside; // True once a pixel falls outside width x height
+	private int version; // Changes with the pixels, for figures without a mask
+	private boolean shared; // True while the pixels, mask and edges belong to a ShapeAsset
+	private boolean maskShared; // True while the mask is also a snapshot's, see snapshot
+	private volatile ShapeAsset pending; // Shape whose pixels have not been taken yet, see materialize
+	private volatile boolean overlapped; // True if this figure overlapped another one when it was placed, see intersectsAfterMove
+	private int minX = Integer.MAX_VALUE; // Smallest rectangle containing the pixels of the figure,
+	private int minY = Integer.MAX_VALUE; // empty while the figure has no pixels
+	private int maxX = Integer.MIN_VALUE;
+	private int maxY = Integer.MIN_VALUE;
 	
 	/**
 	 * Class constructor that creates an empty BinarySearchTree where the pixels of the figure will be stored
 	 */
 	public GraphicalFigure(int id, int width, int height, String type, Location pos) {
-		tree = new BinarySearchTree();
+		this(id, width, height, type, pos, PLAIN_TREE);
+	}
+	
+	/**
+	 * Class constructor that creates an empty tree of the given kind where the pixels of the figure will be stored
+	 * @param storage
+	 * 		  PLAIN_TREE for a BinarySearchTree, BALANCED_TREE for a BalancedBinarySearchTree,
+	 * 		  PACKED_TREE for a PackedPixelTree, PERSISTENT_TREE for a PersistentPixelTree
+	 */
+	public GraphicalFigure(int id, int width, int height, String type, Location pos, int storage) {
+		if (storage == BALANCED_TREE) {
+			tree = new BalancedBinarySearchTree();
+		}
+		else if (storage == PLAIN_TREE) {
+			tree = new BinarySearchTree();
+		}
+		else if (storage == PACKED_TREE) {
+			packed = new PackedPixelTree();
+		}
+		else if (storage == PERSISTENT_TREE) {
+			persistent = PersistentPixelTree.EMPTY;
+		}
+		else {
+			throw new IllegalArgumentException("Unknown pixel storage " + storage);
+		}
 		this.id = id;
 		this.width = width;
 		this.height = height;
 		this.type = type;
 		this.pos = pos;
+		this.mask = new CollisionMask(width, height);
+	}
+	
+	/**
+	 * Class constructor for a figure whose pixels are already stored in a tree,
+	 * for example one bulk loaded with BinarySearchTree.fromRaster
+	 * @param pixels
+	 * 		  the tree storing the pixels of the figure
+	 */
+	public GraphicalFigure(int id, int width, int height, String type, Location pos, BinarySearchTree pixels) {
+		this.tree = pixels;
+		this.id = id;
+		this.width = width;
+		this.height = height;
+		this.type = type;
+		this.pos = pos;
+		this.mask = new CollisionMask(width, height);
+		pixels.forEach((x, y, color) -> include(x, y));
+	}
+	
+	/**
+	 * Class constructor for a frozen figure whose pixels, already sorted, and
+	 * collision mask are read from a scene bundle. No pixel is inserted one by
+	 * one and no image is decoded.
+	 * @param keys
+	 * 		  the packed keys of the pixels (see Location.pack), in increasing order
+	 * @param colors
+	 * 		  the colour of each pixel
+	 * @param n
+	 * 		  the number of pixels
+	 * @param mask
+	 * 		  the collision mask of the pixels
+	 */
+	GraphicalFigure(int id, int width, int height, String type, Location pos, long[] keys, int[] colors, int n,
+			CollisionMask mask) {
+		this.tree = BinarySearchTree.fromPacked(keys, colors, n);
+		this.frozen = new FrozenPixelTree(keys, colors, n);
+		this.id = id;
+		this.width = width;
+		this.height = height;
+		this.type = type;
+		this.pos = pos;
+		this.mask = mask;
+		this.spans = mask.toSpans();
+		for (int i = 0; i < n; ++i) {
+			int x = Location.xOf(keys[i]);
+			int y = Location.yOf(keys[i]);
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+			if (!mask.covers(x, y)) {
+				throw new IllegalArgumentException("Pixel (" + x + "," + y + ") is outside the figure");
+			}
+		}
+	}
+	
+	/**
+	 * Class constructor for a figure with the given shape, whose pixels,
+	 * collision mask, runs and leading edges it shares with every other figure
+	 * of that shape. They are taken from the shape, which builds them if no
+	 * figure needed them before, the first time this figure is tested or
+	 * looked up, and copied the first time a pixel is added to it.
+	 * @param shape
+	 * 		  the shape of the figure
+	 */
+	public GraphicalFigure(int id, String type, Location pos, ShapeAsset shape) {
+		this.id = id;
+		this.type = type;
+		this.pos = pos;
+		this.width = shape.getWidth();
+		this.height = shape.getHeight();
+		this.shared = true;
+		this.pending = shape; // Pixels of a shape are inside its rectangle, so outside stays false
+	}
+	
+	/**
+	 * Makes intersects look up pairs of figures with collision masks in the
+	 * given oracle, which builds a table of their collisions per pair within
+	 * its memory budget
+	 * @param tables
+	 * 		  the oracle, or null to stop using one
+	 */
+	public static void setCollisionOracle(CollisionOracle tables) {
+		oracle = tables;
+	}
+	
+	/**
+	 * Makes intersects remember its answers in the given cache, which holds
+	 * the answers of recent tests within its memory budget
+	 * @param answers
+	 * 		  the cache, or null to stop using one
+	 */
+	public static void setCollisionCache(CollisionCache answers) {
+		cache = answers;
 	}
 	
 	/**
@@ -65,6 +214,81 @@ public class GraphicalFigure implements GraphicalFigureADT {
 		return this.id;
 	}
 	
+	/**
+	 * Returns the number of pixels stored in this figure
+	 * @return
+	 * 		number of pixels of the figure
+	 */
+	public int getNumPixels() {
+		ShapeAsset shape = pending;
+		if (shape != null) {
+			return shape.getNumPixels();
+		}
+		if (packed != null) {
+			return packed.size();
+		}
+		if (persistent != null) {
+			return persistent.size();
+		}
+		return tree.size();
+	}
+	
+	/**
+	 * Returns true once this figure has its pixels, which figures made from a
+	 * ShapeAsset only take when they are first tested or looked up
+	 * @return
+	 * 		true if the pixels of the figure have been needed
+	 */
+	public boolean isMaterialized() {
+		return pending == null;
+	}
+	
+	/**
+	 * Helper method that takes the pixels, mask, runs and leading edges of the
+	 * shape of this figure, if it has not yet. Several threads can call it at
+	 * once; one of them takes them and the others wait for it.
+	 */
+	private void materialize() {
+		if (pending == null) {
+			return;
+		}
+		synchronized (this) {
+			ShapeAsset shape = pending;
+			if (shape == null) {
+				return;
+			}
+			GraphicalFigure from = shape.getPrototype();
+			this.tree = from.tree; // Shapes are built with BinarySearchTree.fromRaster or fromPacked
+			this.frozen = from.frozen;
+			this.mask = from.mask;
+			this.edges = from.edges;
+			this.spans = from.spans;
+			this.outside = from.outside;
+			this.minX = from.minX;
+			this.minY = from.minY;
+			this.maxX = from.maxX;
+			this.maxY = from.maxY;
+			pending = null; // Written last, so a thread that sees null sees the fields above
+		}
+	}
+	
+	/**
+	 * Records that this figure overlapped another one when it was placed, so
+	 * intersectsAfterMove compares it in full instead of by its leading edge
+	 */
+	public void markOverlapped() {
+		overlapped = true;
+	}
+	
+	/**
+	 * Returns true if this figure overlapped another one when it was placed
+	 * @return
+	 * 		true if markOverlapped was called
+	 */
+	public boolean isOverlapped() {
+		return overlapped;
+	}
+	
 	/**
 	 * Returns the offset or position of this figure
 	 * @return
@@ -94,6 +318,80 @@ public class GraphicalFigure implements GraphicalFigureADT {
 		
 	}
 
+	/**
+	 * Returns a copy of this figure as it is now: same id, size, type, offset and
+	 * pixels. Later changes to this figure do not affect the copy, so it can be
+	 * read by other threads without locking. The copy shares the collision mask,
+	 * so collision answers cached or tabled for this figure hold for it too; the
+	 * first of the two to get a new pixel copies the mask first. With
+	 * PERSISTENT_TREE storage the copy also shares the current version of the
+	 * pixels, so taking it costs O(1); otherwise the pixels are copied into a
+	 * PersistentPixelTree, in O(n).
+	 * @return
+	 * 		  a snapshot of this figure
+	 */
+	public GraphicalFigure snapshot() {
+		materialize();
+		GraphicalFigure copy = new GraphicalFigure(id, width, height, type, pos, PERSISTENT_TREE);
+		
+		if (persistent != null) {
+			copy.persistent = persistent;
+		}
+		else {
+			final ArrayList<Pixel> pixels = new ArrayList<Pixel>(getNumPixels());
+			rangeQuery(minX, minY, maxX, maxY, (x, y, color) -> pixels.add(new Pixel(new Location(x, y), color)));
+			copy.persistent = PersistentPixelTree.fromSorted(pixels.iterator());
+		}
+		copy.mask = mask;
+		copy.maskShared = maskShared = mask != null;
+		copy.spans = spans;
+		copy.outside = outside;
+		copy.overlapped = overlapped;
+		copy.minX = minX;
+		copy.minY = minY;
+		copy.maxX = maxX;
+		copy.maxY = maxY;
+		return copy;
+	}
+	
+	/**
+	 * Makes a read-only copy of the pixels laid out for fast lookups and the
+	 * runs of pixels in each row, which are used until the next pixel is added.
+	 * Meant for figures that are fully loaded.
+	 */
+	public void freeze() {
+		if (shared) {
+			return; // Shapes are frozen when they are built
+		}
+		if (mask != null) {
+			spans = mask.toSpans();
+		}
+		if (tree != null) {
+			frozen = tree.freeze();
+			return;
+		}
+		final long[] keys = new long[getNumPixels()];
+		final int[] colors = new int[keys.length];
+		final int[] n = new int[1];
+		rangeQuery(minX, minY, maxX, maxY, (x, y, color) -> {
+			keys[n[0]] = Location.pack(x, y);
+			colors[n[0]++] = color;
+			return true;
+		});
+		frozen = new FrozenPixelTree(keys, colors, n[0]);
+	}
+	
+	/**
+	 * Frees the collision mask and the runs of this figure, for figures too
+	 * large or sparse for a mask. intersects then looks up the pixels in the tree.
+	 */
+	public void dropCollisionMask() {
+		unshare();
+		mask = null;
+		spans = null;
+		edges.clear();
+	}
+	
 	/**
 	 * Adds the given Pixel object into the binary search tree associated with
 	 * this figure. A DuplicatedKeyException is thrown if the figure already has
@@ -104,8 +402,103 @@ public class GraphicalFigure implements GraphicalFigureADT {
 	 * 		  a DuplicatedKeyException if the figure already has a pixel with the same key as the pix
 	 */
 	public void addPixel(Pixel pix) throws DuplicatedKeyException {
-		tree.put(tree.getRoot(), pix);
-		
+		unshare();
+		frozen = null;
+		spans = null;
+		edges.clear();
+		++version;
+		if (packed != null) {
+			packed.put(pix);
+		}
+		else if (persistent != null) {
+			persistent = persistent.put(pix);
+		}
+		else {
+			tree.put(tree.getRoot(), pix);
+		}
+		include(pix.getLocation().xCoord(), pix.getLocation().yCoord());
+	}
+	
+	/**
+	 * Adds the pixel (x,y) with the given colour to this figure. With PACKED_TREE
+	 * storage no object is created for the pixel.
+	 * @param x
+	 * 		  x coordinate of the pixel
+	 * @param y
+	 * 		  y coordinate of the pixel
+	 * @param color
+	 * 		  colour of the pixel
+	 * @throws	
+	 * 		  a DuplicatedKeyException if the figure already has a pixel at (x,y)
+	 */
+	public void addPixel(int x, int y, int color) throws DuplicatedKeyException {
+		unshare();
+		frozen = null;
+		spans = null;
+		edges.clear();
+		++version;
+		if (packed != null) {
+			packed.put(x, y, color);
+		}
+		else if (persistent != null) {
+			persistent = persistent.put(new Pixel(new Location(x, y), color));
+		}
+		else {
+			tree.put(tree.getRoot(), new Pixel(new Location(x, y), color));
+		}
+		include(x, y);
+	}
+	
+	/**
+	 * Helper method that gives this figure its own copy of the pixels and
+	 * collision mask of its shape, and of the mask it shares with a snapshot,
+	 * so they can be changed
+	 */
+	private void unshare() {
+		boolean copyMask = shared || maskShared;
+		maskShared = false;
+		if (shared) {
+			materialize();
+			shared = false;
+			if (tree != null) {
+				final ArrayList<Pixel> pixels = new ArrayList<Pixel>(getNumPixels());
+				rangeQuery(minX, minY, maxX, maxY, (x, y, color) -> pixels.add(new Pixel(new Location(x, y), color)));
+				tree = BinarySearchTree.fromSorted(pixels.iterator());
+			}
+			edges = new ConcurrentHashMap<Long, SpanShape>();
+		}
+		if (copyMask && mask != null) {
+			mask = new CollisionMask(mask);
+		}
+	}
+	
+	/**
+	 * Helper method that grows the rectangle containing the pixels of the figure
+	 * to include (x,y) and sets its bit in the collision mask
+	 * @param x
+	 * 		  x coordinate of a pixel
+	 * @param y
+	 * 		  y coordinate of a pixel
+	 * @return
+	 * 		  true, so it can be used as a PixelConsumer
+	 */
+	private boolean include(int x, int y) {
+		minX = Math.min(minX, x);
+		minY = Math.min(minY, y);
+		maxX = Math.max(maxX, x);
+		maxY = Math.max(maxY, y);
+		if (mask != null) {
+			if (mask.covers(x, y)) {
+				mask.set(x, y);
+			}
+			else {
+				mask = null;
+			}
+		}
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			outside = true;
+		}
+		return true;
 	}
 	
 
@@ -119,17 +512,41 @@ public class GraphicalFigure implements GraphicalFigureADT {
 	 * 		 if the pixel is in the tree
 	 */
 	private boolean findPixel(Location p){
-		Pixel found = tree.get(tree.getRoot(), p);
-		if(found == null){
-			return false;
+		return findPixel(p.xCoord(), p.yCoord());
+	}
+	
+	/**
+	 * Helper method that returns true if the figure has a pixel at (x,y)
+	 * @param x
+	 * 		 x coordinate of the pixel
+	 * @param y
+	 * 		 y coordinate of the pixel
+	 * @return
+	 * 		 true if the pixel is in the tree, false otherwise
+	 */
+	private boolean findPixel(int x, int y){
+		materialize();
+		if (frozen != null) {
+			return frozen.contains(x, y);
 		}
-		return true;
+		if (packed != null) {
+			return packed.get(x, y) != PackedPixelTree.NIL;
+		}
+		if (persistent != null) {
+			return persistent.get(new Location(x, y)) != null;
+		}
+		return tree.get(tree.getRoot(), new Location(x, y)) != null;
 	}
 
 
 	/**
 	 * Returns true if this figure intersects the one specified in the
-	 * parameter; it returns false otherwise.
+	 * parameter; it returns false otherwise. The test is done in tiers, each
+	 * one cheaper than the next: the rectangles of the figures, the rectangles
+	 * containing their pixels, the table of the collision oracle and the
+	 * collision cache if they are set, their collision masks or runs and, for
+	 * figures without masks, a lookup of the pixels of the figure with fewer
+	 * pixels inside the overlap. CollisionStats counts which tier answered.
 	 * @param fig
 	 * 		  the figure that we want to check to see if this figure intersects it
 	 * @return true
@@ -138,25 +555,349 @@ public class GraphicalFigure implements GraphicalFigureADT {
 	 * 		  if the figure doesn't intersect it
 	 */
 	public boolean intersects(GraphicalFigure fig) {
+		return intersects(fig, pos, fig.pos, false, 0, 0);
+	}
+	
+	/**
+	 * Returns true if this figure intersects the one specified in the
+	 * parameter, knowing that it did not before it was moved by (dx,dy) to its
+	 * current offset. Only the pixels that moved to where the figure was not
+	 * before can be new hits, so when that is cheaper only the runs of the
+	 * leading edge of the figure for that move are compared; the edge for each
+	 * move is computed once and kept until the next pixel is added. Figures
+	 * without a collision mask are fully compared.
+	 * 
+	 * The answer is the one of intersects only if the figures did not overlap
+	 * before the move. Figures that overlapped another one when they were
+	 * placed must be marked with markOverlapped (see MoveFigure.markOverlaps);
+	 * a marked figure is always compared in full.
+	 * @param fig
+	 * 		  the figure that we want to check to see if this figure intersects it
+	 * @param dx
+	 * 		  x distance this figure moved by
+	 * @param dy
+	 * 		  y distance this figure moved by
+	 * @return
+	 * 		  true if the figure intersects it
+	 */
+	public boolean intersectsAfterMove(GraphicalFigure fig, int dx, int dy) {
+		return intersects(fig, pos, fig.pos, true, dx, dy);
+	}
+	
+	/**
+	 * Same as intersectsAfterMove, with this figure at the first location and
+	 * the other at the second instead of at their offsets. Figures can be
+	 * tested this way from several threads against a copy of the offsets,
+	 * while no pixel is added to either of them.
+	 * @param fig
+	 * 		  the figure that we want to check to see if this figure intersects it
+	 * @param at
+	 * 		  offset this figure moved to
+	 * @param figAt
+	 * 		  offset of the other figure
+	 * @param dx
+	 * 		  x distance this figure moved by
+	 * @param dy
+	 * 		  y distance this figure moved by
+	 * @return
+	 * 		  true if the figure intersects it
+	 */
+	public boolean intersectsAfterMove(GraphicalFigure fig, Location at, Location figAt, int dx, int dy) {
+		return intersects(fig, at, figAt, true, dx, dy);
+	}
+	
+	/**
+	 * Helper method for intersects and intersectsAfterMove
+	 * @param fig
+	 * 		  the figure that we want to check to see if this figure intersects it
+	 * @param at
+	 * 		  offset of this figure
+	 * @param figAt
+	 * 		  offset of the other figure
+	 * @param moved
+	 * 		  true to compare only what the move could have changed
+	 * @param moveX
+	 * 		  x distance this figure moved by, 0 if not moved
+	 * @param moveY
+	 * 		  y distance this figure moved by, 0 if not moved
+	 * @return
+	 * 		  true if the figure intersects it
+	 */
+	private boolean intersects(GraphicalFigure fig, Location at, Location figAt, boolean moved, int moveX, int moveY) {
+		
+		//Without a move there is no leading edge, and figures that may have overlapped before it have new hits anywhere
+		moved = moved && (moveX != 0 || moveY != 0) && !overlapped && !fig.overlapped;
+		
+		//Position of this figure relative to the figure given as parameter
+		final int dx = at.xCoord() - figAt.xCoord();
+		final int dy = at.yCoord() - figAt.yCoord();
+		
+		//Figures whose pixels are inside their rectangles cannot meet if the rectangles don't
+		if (!outside && !fig.outside && (dx >= fig.width || -dx >= width || dy >= fig.height || -dy >= height)) {
+			if (CollisionStats.isEnabled()) {
+				CollisionStats.record(CollisionStats.BOX, getNumPixels());
+			}
+			return false;
+		}
 		
-		//For each data item stored in the binary search tree storing the pixels do:
-		for(Pixel current = tree.smallest(tree.getRoot()); current!= null; current=tree.successor(tree.getRoot(), current.getLocation())) {
-			
-			//Coordinates of this figure
-			int x = getOffset().xCoord();
-			int y = getOffset().yCoord();
-			
-			//Coordinates of figure given as parameter
-			int figX = fig.getOffset().xCoord();
-			int figY = fig.getOffset().yCoord();
-			
-			//If in the tree storing the pixels of the figure given in the parameter there is a data item that intersects return true
-			if (fig.findPixel(new Location((current.getLocation().xCoord()+x-figX), (current.getLocation().yCoord()+y-figY)))) {
+		//Figures that meet nothing this close never need their pixels
+		materialize();
+		fig.materialize();
+		
+		//Only pixels inside both pixel rectangles can overlap; in the coordinates of this figure that is
+		int fromX = Math.max(minX, fig.minX - dx);
+		int fromY = Math.max(minY, fig.minY - dy);
+		int toX = Math.min(maxX, fig.maxX - dx);
+		int toY = Math.min(maxY, fig.maxY - dy);
+		if (fromX > toX || fromY > toY) {
+			if (CollisionStats.isEnabled()) {
+				CollisionStats.record(CollisionStats.BOUNDS, getNumPixels());
+			}
+			return false;
+		}
+		
+		//One bit lookup when the oracle has a table for the pair
+		CollisionOracle tables = oracle;
+		if (tables != null && mask != null && fig.mask != null) {
+			int answer = tables.intersects(mask, fig.mask, dx, dy);
+			if (answer != CollisionOracle.UNKNOWN) {
+				if (CollisionStats.isEnabled()) {
+					CollisionStats.record(CollisionStats.TABLE, getNumPixels());
+				}
+				return answer == CollisionOracle.HIT;
+			}
+		}
+		
+		//Then the answer of the same test asked before, if it is remembered; an answer for a move holds only for that move
+		CollisionCache answers = cache;
+		if (answers == null) {
+			return compare(fig, moved, moveX, moveY, dx, dy, fromX, fromY, toX, toY);
+		}
+		//Keyed by the test actually run: a full test under the move (0,0), so it never meets an answer for the leading edge
+		int keyX = moved ? moveX : 0;
+		int keyY = moved ? moveY : 0;
+		Boolean known = answers.get(shape(), shapeVersion(), fig.shape(), fig.shapeVersion(), dx, dy, keyX, keyY);
+		if (known != null) {
+			if (CollisionStats.isEnabled()) {
+				CollisionStats.record(CollisionStats.CACHE, getNumPixels());
+			}
+			return known;
+		}
+		boolean hit = compare(fig, moved, moveX, moveY, dx, dy, fromX, fromY, toX, toY);
+		answers.put(shape(), shapeVersion(), fig.shape(), fig.shapeVersion(), dx, dy, keyX, keyY, hit);
+		return hit;
+	}
+	
+	/**
+	 * Helper method for intersects that compares the pixels of the two figures
+	 * inside the overlap of their pixel rectangles
+	 * @param fig
+	 * 		  the other figure
+	 * @param moved
+	 * 		  true to compare only what the move could have changed
+	 * @param moveX
+	 * 		  x distance this figure moved by
+	 * @param moveY
+	 * 		  y distance this figure moved by
+	 * @param dx
+	 * 		  x position of this figure relative to the other
+	 * @param dy
+	 * 		  y position of this figure relative to the other
+	 * @param fromX
+	 * 		  smallest x coordinate of the overlap, in this figure
+	 * @param fromY
+	 * 		  smallest y coordinate of the overlap, in this figure
+	 * @param toX
+	 * 		  largest x coordinate of the overlap, in this figure
+	 * @param toY
+	 * 		  largest y coordinate of the overlap, in this figure
+	 * @return
+	 * 		  true if the figures have a pixel in common
+	 */
+	private boolean compare(GraphicalFigure fig, boolean moved, int moveX, int moveY, final int dx, final int dy,
+			int fromX, int fromY, int toX, int toY) {
+		
+		//After a move, compare the leading edge when it has fewer runs than the masks have words
+		if (moved && mask != null) {
+			SpanShape edge = leadingEdge(moveX, moveY);
+			int words = (toY - fromY + 1) * (((toX + dx) >>> 6) - ((fromX + dx) >>> 6) + 1);
+			if (fig.mask != null && edge.getRunCount() < words) {
+				if (CollisionStats.isEnabled()) {
+					CollisionStats.record(CollisionStats.MASK, getNumPixels());
+				}
+				for (int y = fromY; y <= toY; ++y) {
+					if (edge.rowIntersects(y, fig.mask, y + dy, dx, fromX, toX)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			if (fig.mask == null) {
+				if (!CollisionStats.isEnabled()) {
+					return !edge.rangeQuery(fromX, fromY, toX, toY, (x, y, color) -> !fig.findPixel(x + dx, y + dy));
+				}
+				final int[] probes = new int[1];
+				boolean found = !edge.rangeQuery(fromX, fromY, toX, toY, (x, y, color) -> {
+					++probes[0];
+					return !fig.findPixel(x + dx, y + dy);
+				});
+				CollisionStats.record(CollisionStats.WALK, getNumPixels() - probes[0]);
+				return found;
+			}
+		}
+		
+		//Compare the rows of the masks when both figures have one
+		if (mask != null && fig.mask != null) {
+			if (CollisionStats.isEnabled()) {
+				CollisionStats.record(CollisionStats.MASK, getNumPixels());
+			}
+			return rowsIntersect(fig, dx, dy, fromX, fromY, toX, toY);
+		}
+		
+		//Otherwise look up the pixels of the smaller figure in the other, stopping at the first one found
+		boolean smaller = fig.getNumPixels() < getNumPixels();
+		if (!CollisionStats.isEnabled()) {
+			if (smaller) {
+				return !fig.rangeQuery(fromX + dx, fromY + dy, toX + dx, toY + dy,
+						(x, y, color) -> !findPixel(x - dx, y - dy));
+			}
+			return !rangeQuery(fromX, fromY, toX, toY, (x, y, color) -> !fig.findPixel(x + dx, y + dy));
+		}
+		
+		//The same walk, counting the probes for the statistics
+		final int[] probes = new int[1];
+		boolean found;
+		if (smaller) {
+			found = !fig.rangeQuery(fromX + dx, fromY + dy, toX + dx, toY + dy, (x, y, color) -> {
+				++probes[0];
+				return !findPixel(x - dx, y - dy);
+			});
+		}
+		else {
+			found = !rangeQuery(fromX, fromY, toX, toY, (x, y, color) -> {
+				++probes[0];
+				return !fig.findPixel(x + dx, y + dy);
+			});
+		}
+		CollisionStats.record(CollisionStats.WALK, getNumPixels() - probes[0]);
+		return found;
+	}
+	
+	/**
+	 * Helper method that compares the rows fromY to toY of the masks of this
+	 * figure and the given one, both of which must have masks. Each row is
+	 * compared as runs when both figures have runs and that is cheaper than
+	 * the words of the masks, so solid shapes cost one step per edge. Only
+	 * overlaps more than two words wide use the runs, so figures at most 128
+	 * pixels wide, like all the images shipped with the game, always use the masks
+	 * @param fig
+	 * 		  the other figure
+	 * @param dx
+	 * 		  x position of this figure relative to the other
+	 * @param dy
+	 * 		  y position of this figure relative to the other
+	 * @param fromX
+	 * 		  smallest x coordinate of the overlap, in this figure
+	 * @param fromY
+	 * 		  smallest y coordinate of the overlap, in this figure
+	 * @param toX
+	 * 		  largest x coordinate of the overlap, in this figure
+	 * @param toY
+	 * 		  largest y coordinate of the overlap, in this figure
+	 * @return
+	 * 		  true if the figures have a pixel in common
+	 */
+	private boolean rowsIntersect(GraphicalFigure fig, int dx, int dy, int fromX, int fromY, int toX, int toY) {
+		SpanShape runs = spans;
+		SpanShape otherRuns = fig.spans;
+		int words = ((toX + dx) >>> 6) - ((fromX + dx) >>> 6) + 1;
+		
+		//Rows of one or two words are compared faster than runs can be counted
+		if (words <= 2) {
+			runs = null;
+		}
+		for (int y = fromY; y <= toY; ++y) {
+			if (runs != null && otherRuns != null && runs.getRunCount(y) + otherRuns.getRunCount(y + dy) <= words) {
+				if (runs.rowIntersects(y, otherRuns, y + dy, dx)) {
+					return true;
+				}
+			}
+			else if (mask.rowIntersects(fig.mask, y, dx, dy, fromX, toX)) {
 				return true;
 			}
 		}
-		//Otherwise return false
-		return false;	
+		return false;
+	}
+	
+	/**
+	 * Helper method that returns the object identifying the shape of this
+	 * figure for the collision cache: its mask, which figures may share, or
+	 * the figure itself if it has none
+	 * @return
+	 * 		  the shape
+	 */
+	private Object shape() {
+		return mask != null ? mask : this;
+	}
+	
+	/**
+	 * Helper method that returns the version of the shape of this figure
+	 * @return
+	 * 		  a number that changes when the pixels of the figure change
+	 */
+	private int shapeVersion() {
+		return mask != null ? mask.getVersion() : version;
+	}
+	
+	/**
+	 * Helper method that returns the runs of the pixels of this figure that land
+	 * where it was not before when it moves by the given distance. The figure
+	 * must have a collision mask
+	 * @param dx
+	 * 		  x distance of the move
+	 * @param dy
+	 * 		  y distance of the move
+	 * @return
+	 * 		  the runs of the leading edge
+	 */
+	private SpanShape leadingEdge(int dx, int dy) {
+		Long move = Location.pack(dx, dy);
+		SpanShape edge = edges.get(move);
+		if (edge == null) {
+			//Threads racing here compute the same edge, and all keep the first one stored
+			edge = mask.edge(dx, dy).toSpans();
+			SpanShape stored = edges.putIfAbsent(move, edge);
+			if (stored != null) {
+				edge = stored;
+			}
+		}
+		return edge;
+	}
+	
+	/**
+	 * Helper method that visits the pixels of this figure inside a rectangle in key order
+	 * @param fromX
+	 * 		  smallest x coordinate of the rectangle
+	 * @param fromY
+	 * 		  smallest y coordinate of the rectangle
+	 * @param toX
+	 * 		  largest x coordinate of the rectangle
+	 * @param toY
+	 * 		  largest y coordinate of the rectangle
+	 * @param consumer
+	 * 		  the visitor, which returns false to stop
+	 * @return
+	 * 		  true if every pixel was visited, false if the visitor stopped
+	 */
+	private boolean rangeQuery(int fromX, int fromY, int toX, int toY, PixelConsumer consumer) {
+		materialize();
+		if (packed != null) {
+			return packed.rangeQuery(fromX, fromY, toX, toY, consumer);
+		}
+		if (persistent != null) {
+			return persistent.rangeQuery(new Location(fromX, fromY), new Location(toX, toY), consumer);
+		}
+		return tree.rangeQuery(new Location(fromX, fromY), new Location(toX, toY), consumer);
 	}
 	
 }
@@ -19,6 +19,11 @@ public interface GraphicalFigureADT {
 	 */
 	public int getId();
 
+	/*
+	 * Returns the number of pixels stored in this figure
+	 */
+	public int getNumPixels();
+
 	/*
 	 * Returns the offset or position of this figure
 	 */
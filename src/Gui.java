@@ -1,20 +1,15 @@
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Container;
+import java.awt.EventQueue;
 import java.awt.Graphics;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.StringTokenizer;
+import java.util.Arrays;
 
-import javax.imageio.ImageIO;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
@@ -35,8 +30,7 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 	private Color backgroundColor = new Color(205, 200, 205);
 
 	private final int TRANSPARENT = 0xCDC8CD; // Background color with
-												// transparency
-	private final int SOLID = 0xFFCDC8CD; // Background color
+												// transparency, painted by the erasing sprites
 
 	private final int MENU_HEIGHT = 74; // Height of buttons toolbar
 	private final int BORDER = 9; // Border width
@@ -49,6 +43,7 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 	private int delay = 300; // Time between figure movements
 	private boolean toWait = true; // Movement of figures is paused
 	private MoveFigure mover;
+	private volatile BroadPhase broadPhase; // Index of the figures on the board, used to find collision candidates; set once loaded
 
 	private int windowWidth; // Dimensions of playing window
 	private int windowHeight;
@@ -58,17 +53,18 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 	private final String TARGET = "target"; // Type of figure that can be destroyed
 											// by the mobile figures
 	private final String FIGURE_KILLED = "killed";// Type of figure that has been killed
-	private final int MAX_FIGURES = 50; // Maximum number of figures to display
 	private final int THRESHOLD = 225; // transparent pixels have RGB values >= threshold
+	private final long ORACLE_BUDGET = 8 << 20; // Bytes of collision tables shared by the figures
+	private final long CACHE_BUDGET = 1 << 20; // Bytes of recent collision answers
+	private final int QUADTREE_CELL = 16; // Side of the smallest cells of the broad phase quadtree
+	private final int LOADER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors()); // Threads decoding images, one per core since decoding is CPU bound
+	private final ShapeCache shapes = new ShapeCache(THRESHOLD, TRANSPARENT); // Shapes of the images read
 
 	private boolean increaseStep = false; // Set to true to move computer figures
 	                                      // with longer steps
 	private int numMobile = 0; // Number of figures that user can move
-	private int[] mobileFigs = new int[MAX_FIGURES];
-	private int numFigures = 0;
-	GraphicalFigure[] figs = new GraphicalFigure[MAX_FIGURES]; // Figures are stored in this array
-	BufferedImage[] imgs = new BufferedImage[MAX_FIGURES]; // Information needed to display the figures
-	BufferedImage[] erased = new BufferedImage[MAX_FIGURES]; // Info needed to erase the figures
+	private int[] mobileFigs = new int[16]; // Grows with the number of figures that user can move
+	private final FigureRegistry figures = new FigureRegistry(); // Figures with the sprites that draw and erase them
 
 	/* ============================================== */
 	public Gui(int width, int height, String name) {
@@ -117,9 +113,16 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 			contentPane.requestFocusInWindow();
 
 			System.out.println("Initializing ...");
-			Thread.sleep(2000);
 
+			GraphicalFigure.setCollisionOracle(new CollisionOracle(ORACLE_BUDGET));
+			GraphicalFigure.setCollisionCache(new CollisionCache(CACHE_BUDGET));
 			readFigures(name);
+			broadPhase = new LooseQuadtree(0, 0, Math.max(windowWidth, windowHeight), QUADTREE_CELL);
+			for (int i = 0; i < figures.size(); ++i)
+				broadPhase.insert(figures.get(i));
+			int overlapped = MoveFigure.markOverlaps(figures.getFigures(), figures.size(), broadPhase);
+			if (overlapped > 0)
+				System.out.println(overlapped + " figures overlap others and are tested in full");
 			mover = new MoveFigure(this);
 			System.out.println("Ready.");
 		} catch (Exception e) {
@@ -136,60 +139,33 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 		 * corner of where the figure will be drawn, - type = "fixed" : fixed
 		 * figure type = "user" : figure moved by user type = "computer" :
 		 * figure moved by computer type = "target" : target figure - file is
-		 * the name of an image file in .bmp, .jpeg, or .gif format
+		 * the name of an image file in .bmp, .jpeg, or .gif format. The images
+		 * are decoded in parallel while the window comes up, and the figures are
+		 * drawn in the order of the file as they become ready. The file can also
+		 * be a bundle written by SceneCompiler, which is read without decoding.
 		 */
 
-		StringTokenizer tokenizer;
-		int x, y, width, height;
-		String type;
-		String imagefile;
-		BufferedImage im;
+		SceneLoader.Listener add = (fig, shape) -> {
+			if (fig.getType().equals(MOBILE_FIGURE)) {
+				if (numMobile == mobileFigs.length)
+					mobileFigs = Arrays.copyOf(mobileFigs, 2 * numMobile);
+				mobileFigs[numMobile++] = fig.getId();
+			}
 
+			// Figures drawn from the same image share its pixels and sprites
+			paint(figures.add(fig, shape.getImage(), shape.getErased()));
+		};
 		try {
-			// Open the input file
-			BufferedReader inputFig = new BufferedReader(new InputStreamReader(new FileInputStream(new File(name))));
-			String buff = inputFig.readLine();
-
-			numFigures = 0;
-
-			while (buff != null) {
-
-				/* Read (x,y) and name of image file */
-				tokenizer = new StringTokenizer(buff);
-				x = Integer.parseInt(tokenizer.nextToken());
-				y = Integer.parseInt(tokenizer.nextToken());
-				type = tokenizer.nextToken();
-				imagefile = tokenizer.nextToken();
-
-				if (type.equals(MOBILE_FIGURE))
-					mobileFigs[numMobile++] = numFigures;
-
-				im = ImageIO.read(new File(imagefile));
-
-				width = im.getWidth();
-				height = im.getHeight();
-
-				imgs[numFigures] = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-				erased[numFigures] = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
-
-				figs[numFigures] = new GraphicalFigure(numFigures, width, height, type, new Location(x, y));
-
-				insertPoints(im, numFigures, 0, 0, width - 1, height - 1, width);
-
-				++numFigures;
-				drawFigure(figs[numFigures - 1]); // numFigures must be equal to
-				                                  // the number of existing graphical objects
-
-				if (numFigures > MAX_FIGURES) {
-					System.out.println("Maximum number of figures is " + MAX_FIGURES);
-					break;
-				}
-
-				buff = inputFig.readLine();
-
+			if (SceneBundle.isBundle(name)) {
+				// Compiled by SceneCompiler: nothing to decode
+				SceneBundle bundle = SceneBundle.open(name, THRESHOLD, TRANSPARENT);
+				waitForWindow();
+				bundle.publish(add);
+			} else {
+				SceneLoader.Loading scene = new SceneLoader(shapes, LOADER_THREADS).start(name);
+				waitForWindow();
+				scene.publish(add);
 			}
-
-			inputFig.close();
 		} catch (IOException e) {
 			System.out.println("Error opening file. " + e.getMessage());
 		} catch (DuplicatedKeyException e) {
@@ -200,64 +176,16 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 
 	}
 
-	/*
-	 * ========================================================================
-	 */
-	private void insertPoints(BufferedImage im, int nfig, int xf, int yf, int xl, int yl, int width)
-			throws DuplicatedKeyException {
-		/*
-		 * =====================================================================
-		 */
-		/* Insert the pixels into the data structure to represent the graphical object */
-		int m, xm, ym, rgb;
-		int xm1, xm2, ym1, ym2;
-
-		/*
-		 * Perform a binary splitting of the pixels and insert them in that
-		 * order in the binary search tree
-		 */
-		if ((yf < yl) || ((yf == yl) && (xf <= xl))) {
-			m = (yf * width + xf + yl * width + xl) / 2; // Pixel in the middle
-															// of figure
-			xm = m % width; // Coordinates of the middle pixel
-			ym = m / width;
-			rgb = im.getRGB(xm, ym); // Color of middle pixel
-			if (((rgb & 0xff) >= THRESHOLD) && (((rgb & 0xff00) >> 8) >= THRESHOLD)
-					&& (((rgb & 0xff0000) >> 16) >= THRESHOLD))
-				rgb = rgb & 0x00ffffff; // Transparent pixels are not inserted in the tree
-			else {
-				Pixel pix = new Pixel(new Location(xm, ym), rgb);
-				figs[nfig].addPixel(pix);
-			}
-			imgs[nfig].setRGB(xm, ym, rgb);
-
-			if ((rgb & 0xff000000) == 0) // Graphical object of same color as background
-				// used to erase the current graphical object
-				erased[nfig].setRGB(xm, ym, TRANSPARENT);
-			else
-				erased[nfig].setRGB(xm, ym, SOLID);
-
-			// Split the gaphical object around the middle pixel
-			if (xm > 0) {
-				xm1 = xm - 1;
-				ym1 = ym;
-			} else {
-				xm1 = width - 1;
-				ym1 = ym - 1;
-			}
-			if (xm < width - 1) {
-				xm2 = xm + 1;
-				ym2 = ym;
-			} else {
-				xm2 = 0;
-				ym2 = ym + 1;
-			}
-
-			// Insert the pixels in each half of the graphical object
-			insertPoints(im, nfig, xf, yf, xm1, ym1, width);
-			insertPoints(im, nfig, xm2, ym2, xl, yl, width);
-
-		}
+	/* ======================================= */
+	private void waitForWindow() throws Exception {
+		/* ======================================= */
+		/* Wait until the window is on screen and has painted its background, so figures
+		 * drawn next are not painted over */
+		while (!panel.isShowing())
+			Thread.sleep(10);
+		if (!EventQueue.isDispatchThread())
+			EventQueue.invokeAndWait(() -> {
+			});
 	}
 
 	/* ==================== */
@@ -278,6 +206,19 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 		return display;
 	}
 
+	/* =================================================== */
+	private void quit() {
+		/* =================================================== */
+		/* Report how many figures never needed their pixels, then close the game */
+		int unused = 0;
+		for (int i = 0; i < figures.size(); ++i)
+			if (!figures.get(i).isMaterialized())
+				++unused;
+		System.out.println(unused + " of " + figures.size() + " figures never needed their pixels");
+		dispose();
+		System.exit(0);
+	}
+
 	/* =================================================== */
 	private JButton makeButton(String label, Color color)
 	/* =================================================== */
@@ -305,12 +246,14 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 			else
 				increaseStep = true;
 		} else if (s.equals("Re-paint")) {
-			for (int i = 0; i < numFigures; ++i)
-				drawFigure(figs[i]);
-		} else if (s.equals("Exit")) {
-			dispose();
-			System.exit(0);
-		}
+			if (broadPhase == null) // Still loading
+				for (int i = 0; i < figures.size(); ++i)
+					drawFigure(figures.get(i));
+			else // Only the figures on the board are drawn
+				for (int i : broadPhase.query(0, 0, windowWidth, windowHeight))
+					drawFigure(figures.get(i));
+		} else if (s.equals("Exit"))
+			quit();
 
 		contentPane.requestFocusInWindow();
 	}
@@ -353,21 +296,20 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 		/* Move user figures depending on which key was pressed */
 		for (i = 0; i < numMobile; ++i) {
 			b = -1;
-			if (!(figs[mobileFigs[i]].getType()).equals(FIGURE_KILLED)) {
+			if (!(figures.get(mobileFigs[i]).getType()).equals(FIGURE_KILLED)) {
 				if (c == KeyEvent.VK_UP)
-					b = mover.moveUp(figs, numFigures, mobileFigs[i], step);
+					b = mover.moveUp(figures.getFigures(), figures.size(), mobileFigs[i], step);
 				else if (c == KeyEvent.VK_DOWN)
-					b = mover.moveDown(figs, numFigures, mobileFigs[i], step);
+					b = mover.moveDown(figures.getFigures(), figures.size(), mobileFigs[i], step);
 				else if (c == KeyEvent.VK_LEFT)
-					b = mover.moveLeft(figs, numFigures, mobileFigs[i], step);
+					b = mover.moveLeft(figures.getFigures(), figures.size(), mobileFigs[i], step);
 				else if (c == KeyEvent.VK_RIGHT)
-					b = mover.moveRight(figs, numFigures, mobileFigs[i], step);
+					b = mover.moveRight(figures.getFigures(), figures.size(), mobileFigs[i], step);
 				else if (c == KeyEvent.VK_B)
 					Start();
-				else if (c == KeyEvent.VK_X) {
-					dispose();
-					System.exit(0);
-				} else if (c == KeyEvent.VK_F) {
+				else if (c == KeyEvent.VK_X)
+					quit();
+				else if (c == KeyEvent.VK_F) {
 					if (delay >= 100)
 						delay -= 100;
 					else
@@ -376,10 +318,11 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 					delay += 100;
 			}
 			if (b >= 0) { // There was a collision
-				if (figs[b].getType().equals(TARGET)) {
-					eraseFigure(figs[b]);
-					figs[b].setType(FIGURE_KILLED);
-					figs[b].setOffset(new Location(-1000, -1000));
+				if (figures.get(b).getType().equals(TARGET)) {
+					eraseFigure(figures.get(b));
+					broadPhase.remove(figures.get(b));
+					figures.get(b).setType(FIGURE_KILLED);
+					figures.get(b).setOffset(new Location(-1000, -1000));
 				}
 			}
 		}
@@ -400,15 +343,15 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 		/* ======================================= */
 		/* Draw the given figure at its current Location */
 
-		Location pos;
+		Location pos = f.getOffset();
+		if (pos.xCoord() >= windowWidth || pos.yCoord() >= windowHeight || pos.xCoord() + f.getWidth() <= 0
+				|| pos.yCoord() + f.getHeight() <= 0)
+			return; // Figure is off the board
 		try {
-			for (int i = 0; i < numFigures; ++i) {
-				if (figs[i].getId() == (f.getId())) {
-					pos = figs[i].getOffset();
-					display.drawImage(imgs[i], pos.xCoord(), pos.yCoord(), null);
-					Thread.sleep(10);
-					return;
-				}
+			int i = figures.indexOf(f);
+			if (i >= 0) {
+				paint(i);
+				Thread.sleep(10);
 			}
 		} catch (Exception e) {
 			System.out.println(e.getMessage());
@@ -416,19 +359,23 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 
 	}
 
+	/* ======================================= */
+	private void paint(int i) {
+		/* ======================================= */
+		/* Draw the i-th figure at its current Location, without pausing */
+		Location pos = figures.get(i).getOffset();
+		display.drawImage(figures.getImage(i), pos.xCoord(), pos.yCoord(), null);
+	}
+
 	/* ======================================= */
 	public void eraseFigure(GraphicalFigure f) {
 		/* ======================================= */
 		/* Erase the given graphical object */
 
-		Location pos;
-
-		for (int i = 0; i < numFigures; ++i) {
-			if (figs[i].getId() == (f.getId())) {
-				pos = figs[i].getOffset();
-				display.drawImage(erased[i], pos.xCoord(), pos.yCoord(), null);
-				return;
-			}
+		int i = figures.indexOf(f);
+		if (i >= 0) {
+			Location pos = f.getOffset();
+			display.drawImage(figures.getErased(i), pos.xCoord(), pos.yCoord(), null);
 		}
 
 	}
@@ -436,13 +383,20 @@ public class Gui extends JFrame implements ActionListener, KeyListener {
 	/* =========================== */
 	public GraphicalFigure[] getFigures() {
 		/* =========================== */
-		return figs;
+		return figures.getFigures();
+	}
+
+	/* =========================== */
+	public BroadPhase getBroadPhase() {
+		/* =========================== */
+		/* Index of the figures on the board; figures moved outside MoveFigure must be updated in it */
+		return broadPhase;
 	}
 
 	/* =========================== */
 	public int getNumFigures() {
 		/* =========================== */
-		return numFigures;
+		return figures.size();
 	}
 
 }
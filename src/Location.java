@@ -66,7 +66,52 @@ public class Location {
 		}
 	}
 
+	/**
+	 * Returns this location packed in a long; packed locations compare as
+	 * longs in the same column order as compareTo
+	 * @return
+	 * 		the packed location
+	 */
+	public long pack() {
+		return pack(this.x, this.y);
+	}
+	
+	/**
+	 * Packs the coordinates (x,y) in a long: x in the high half and y, with its
+	 * sign bit flipped, in the low half
+	 * @param x
+	 * 		the x coordinate
+	 * @param y
+	 * 		the y coordinate
+	 * @return
+	 * 		the packed location
+	 */
+	public static long pack(int x, int y) {
+		return ((long) x << 32) | ((y ^ 0x80000000) & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Returns the x coordinate of a packed location
+	 * @param key
+	 * 		the packed location
+	 * @return
+	 * 		x coordinate
+	 */
+	public static int xOf(long key) {
+		return (int) (key >> 32);
+	}
+	
+	/**
+	 * Returns the y coordinate of a packed location
+	 * @param key
+	 * 		the packed location
+	 * @return
+	 * 		y coordinate
+	 */
+	public static int yOf(long key) {
+		return ((int) key) ^ 0x80000000;
+	}
+
 }
 
 	
-
@@ -0,0 +1,391 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class is a broad phase that keeps the figures in a loose quadtree over
+ * a square region of the plane. Each node covers a square cell and holds the
+ * figures whose centre is in its cell and whose width and height are at most
+ * the side of the cell; the four children of a node split its cell in four.
+ * Because a node only takes figures no larger than its cell, its figures stay
+ * within the cell grown by half a side on every side, its loose bounds, and a
+ * query only visits the nodes whose loose bounds overlap the query rectangle.
+ *
+ * The node of a figure is found from its size and centre without searching,
+ * so insert, update and remove take O(log n) time, and a move that keeps the
+ * centre of a figure in the same cell takes constant time. Small and large
+ * figures mix well: each one lives at the depth of its size. Figures whose
+ * centre is outside the region are kept in the root and tested by every query.
+ *
+ * The tree can be shared by threads, such as the event thread moving the
+ * user's figure and the thread moving the computer's figures: queries hold a
+ * read lock, so they run at the same time, and insert, update and remove
+ * hold the write lock, so they wait for the queries and each other.
+ */
+public class LooseQuadtree implements BroadPhase {
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final Node root;
+	private final int minSize; // Nodes are not split below this side
+	private int[] rects = new int[0]; // x, y, width, height of each figure by id
+	private Node[] nodes = new Node[0]; // Node holding each figure by id, null if not in the tree
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // Guards all of the above
+
+	/**
+	 * A constructor for an empty tree over the square of the given side whose
+	 * upper left corner is (x,y); the side is rounded up to a power of 2
+	 * @param x
+	 * 		x coordinate of the upper left corner of the region
+	 * @param y
+	 * 		y coordinate of the upper left corner of the region
+	 * @param size
+	 * 		side of the region in pixels
+	 * @param minSize
+	 * 		side of the smallest cells, in pixels
+	 */
+	public LooseQuadtree(int x, int y, int size, int minSize) {
+		if (size <= 0 || minSize <= 0) {
+			throw new IllegalArgumentException("Sizes must be positive");
+		}
+		int side = Integer.highestOneBit(size);
+		if (side < size) {
+			side <<= 1;
+		}
+		this.root = new Node(null, x, y, side);
+		this.minSize = minSize;
+	}
+
+	/**
+	 * Adds the given figure at its current offset
+	 * @param fig
+	 * 		the figure
+	 */
+	public void insert(GraphicalFigure fig) {
+		lock.writeLock().lock();
+		try {
+			int id = fig.getId();
+			if (id >= nodes.length) {
+				grow(id);
+			}
+			if (nodes[id] != null) {
+				update(fig);
+				return;
+			}
+			store(fig);
+			place(id, find(id));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves the given figure to its current offset
+	 * @param fig
+	 * 		a figure in the tree
+	 */
+	public void update(GraphicalFigure fig) {
+		lock.writeLock().lock();
+		try {
+			int id = fig.getId();
+			if (id >= nodes.length || nodes[id] == null) {
+				return;
+			}
+			store(fig);
+
+			//Small moves usually keep the centre in the same cell
+			Node node = find(id);
+			if (node != nodes[id]) {
+				nodes[id].remove(id);
+				place(id, find(id)); // The first node found may have been pruned with the old one
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the given figure, if it is in the tree
+	 * @param fig
+	 * 		the figure
+	 */
+	public void remove(GraphicalFigure fig) {
+		lock.writeLock().lock();
+		try {
+			int id = fig.getId();
+			if (id < nodes.length && nodes[id] != null) {
+				nodes[id].remove(id);
+				nodes[id] = null;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ids of the figures whose rectangles overlap the given one
+	 * @param x
+	 * 		x coordinate of the upper left corner of the rectangle
+	 * @param y
+	 * 		y coordinate of the upper left corner of the rectangle
+	 * @param width
+	 * 		width of the rectangle
+	 * @param height
+	 * 		height of the rectangle
+	 * @return
+	 * 		the ids, in increasing order
+	 */
+	public int[] query(int x, int y, int width, int height) {
+		Found found = new Found();
+
+		//The root also holds the figures outside the region, so it is always searched
+		lock.readLock().lock();
+		try {
+			collect(root, x, y, width, height, found);
+		} finally {
+			lock.readLock().unlock();
+		}
+		int[] ids = Arrays.copyOf(found.ids, found.size);
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Returns the ids of the other figures whose rectangles overlap the
+	 * rectangle of the given figure, as it was last inserted or updated
+	 * @param fig
+	 * 		a figure in the tree
+	 * @return
+	 * 		the ids, in increasing order
+	 */
+	public int[] candidates(GraphicalFigure fig) {
+		int[] found;
+		int id = fig.getId();
+		lock.readLock().lock();
+		try {
+			if (id >= nodes.length || nodes[id] == null) {
+				return new int[0];
+			}
+			int first = 4 * id;
+			found = query(rects[first], rects[first + 1], rects[first + 2], rects[first + 3]);
+		} finally {
+			lock.readLock().unlock();
+		}
+		int self = Arrays.binarySearch(found, id);
+		if (self < 0) {
+			return found; // An empty figure overlaps nothing, not even itself
+		}
+		int[] others = new int[found.length - 1];
+		System.arraycopy(found, 0, others, 0, self);
+		System.arraycopy(found, self + 1, others, self, others.length - self);
+		return others;
+	}
+
+	/**
+	 * Returns the number of nodes of the tree, including the root
+	 * @return
+	 * 		number of nodes
+	 */
+	public int getNodeCount() {
+		lock.readLock().lock();
+		try {
+			return root.subtreeNodes();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Helper method that adds the figures of the subtree of the given node
+	 * that overlap the rectangle to found
+	 */
+	private void collect(Node node, int x, int y, int width, int height, Found found) {
+		for (int i = 0; i < node.size; ++i) {
+			int id = node.ids[i];
+			if (overlaps(id, x, y, width, height)) {
+				found.add(id);
+			}
+		}
+		if (node.children == null) {
+			return;
+		}
+		for (Node child : node.children) {
+			if (child != null && child.total > 0) {
+				int margin = child.side >> 1;
+				if (child.x - margin < x + width && x < child.x + child.side + margin
+						&& child.y - margin < y + height && y < child.y + child.side + margin) {
+					collect(child, x, y, width, height, found);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Helper method that returns the node that must hold the figure: the
+	 * deepest node whose cell contains its centre and is at least as large as
+	 * the figure. The nodes on the way are created as needed.
+	 * @param id
+	 * 		id of the figure
+	 * @return
+	 * 		the node
+	 */
+	private Node find(int id) {
+		int first = 4 * id;
+		int extent = Math.max(rects[first + 2], rects[first + 3]);
+		long centreX = rects[first] + (rects[first + 2] >> 1);
+		long centreY = rects[first + 1] + (rects[first + 3] >> 1);
+		Node node = root;
+
+		if (centreX < root.x || centreY < root.y || centreX >= (long) root.x + root.side
+				|| centreY >= (long) root.y + root.side) {
+			return root;
+		}
+		while (node.side >> 1 >= Math.max(extent, minSize)) {
+			int half = node.side >> 1;
+			int quadrant = (centreX >= node.x + half ? 1 : 0) + (centreY >= node.y + half ? 2 : 0);
+			if (node.children == null) {
+				node.children = new Node[4];
+			}
+			if (node.children[quadrant] == null) {
+				node.children[quadrant] = new Node(node, node.x + (quadrant & 1) * half, node.y + (quadrant >> 1) * half, half);
+			}
+			node = node.children[quadrant];
+		}
+		return node;
+	}
+
+	/**
+	 * Helper method that puts the figure in the given node
+	 * @param id
+	 * 		id of the figure
+	 * @param node
+	 * 		the node
+	 */
+	private void place(int id, Node node) {
+		node.add(id);
+		nodes[id] = node;
+	}
+
+	/**
+	 * Helper method that returns true if the stored rectangle of the figure
+	 * overlaps the given one
+	 * @param id
+	 * 		id of the figure
+	 * @return
+	 * 		true if the rectangles overlap
+	 */
+	private boolean overlaps(int id, int x, int y, int width, int height) {
+		int first = 4 * id;
+		return rects[first] < x + width && x < rects[first] + rects[first + 2]
+				&& rects[first + 1] < y + height && y < rects[first + 1] + rects[first + 3];
+	}
+
+	/**
+	 * Helper method that stores the rectangle of the figure
+	 * @param fig
+	 * 		the figure
+	 */
+	private void store(GraphicalFigure fig) {
+		int first = 4 * fig.getId();
+		Location pos = fig.getOffset();
+		rects[first] = pos.xCoord();
+		rects[first + 1] = pos.yCoord();
+		rects[first + 2] = fig.getWidth();
+		rects[first + 3] = fig.getHeight();
+	}
+
+	/**
+	 * Helper method that makes room for figures with ids up to the given one
+	 * @param id
+	 * 		the largest id
+	 */
+	private void grow(int id) {
+		int length = Math.max(id + 1, 2 * nodes.length);
+		rects = Arrays.copyOf(rects, 4 * length);
+		nodes = Arrays.copyOf(nodes, length);
+	}
+
+	/**
+	 * A node of the tree: its cell, the ids of the figures it holds and the
+	 * number of figures in its subtree, so empty subtrees are skipped
+	 */
+	private static final class Node {
+		private final Node parent;
+		private final int x;
+		private final int y;
+		private final int side;
+		private Node[] children; // Null until a figure goes below this node; empty children are dropped
+		private int[] ids = new int[4];
+		private int size;
+		private int total; // Figures in this node and its descendants
+
+		Node(Node parent, int x, int y, int side) {
+			this.parent = parent;
+			this.x = x;
+			this.y = y;
+			this.side = side;
+		}
+
+		void add(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+			}
+			ids[size++] = id;
+			for (Node node = this; node != null; node = node.parent) {
+				++node.total;
+			}
+		}
+
+		void remove(int id) {
+			for (int i = 0; i < size; ++i) {
+				if (ids[i] == id) {
+					ids[i] = ids[--size];
+
+					//Drop the largest subtree left empty, so nodes do not pile up where figures passed
+					Node empty = null;
+					for (Node node = this; node != null; node = node.parent) {
+						if (--node.total == 0 && node.parent != null) {
+							empty = node;
+						}
+					}
+					if (empty != null) {
+						Node[] siblings = empty.parent.children;
+						for (int j = 0; j < siblings.length; ++j) {
+							if (siblings[j] == empty) {
+								siblings[j] = null;
+							}
+						}
+					}
+					return;
+				}
+			}
+		}
+
+		int subtreeNodes() {
+			int count = 1;
+			if (children != null) {
+				for (Node child : children) {
+					if (child != null) {
+						count += child.subtreeNodes();
+					}
+				}
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Ids found by a query
+	 */
+	private static final class Found {
+		private int[] ids = new int[8];
+		private int size;
+
+		void add(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+			}
+			ids[size++] = id;
+		}
+	}
+}
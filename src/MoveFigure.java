@@ -29,11 +29,12 @@ public class MoveFigure {
 
 		// Verify that graphical obejcts do not overlap
 		figs[fignum].setOffset(next);
-		for (int i = 0; i < numFigures; ++i)
-			if ((i != fignum) && (figs[fignum].intersects(figs[i]))) {
-				figs[fignum].setOffset(curr);
-				return i;
-			}
+		int hit = firstHit(figs, numFigures, fignum, -step, 0);
+		if (hit >= 0) {
+			figs[fignum].setOffset(curr);
+			moved(figs[fignum]);
+			return hit;
+		}
 
 		// Move graphical object to its new Location
 		figs[fignum].setOffset(curr);
@@ -63,11 +64,12 @@ public class MoveFigure {
 
 		// Check that graphical objects do not overlap
 		figs[fignum].setOffset(next);
-		for (int i = 0; i < numFigures; ++i)
-			if ((i != fignum) && (figs[fignum].intersects(figs[i]))) {
-				figs[fignum].setOffset(curr);
-				return i;
-			}
+		int hit = firstHit(figs, numFigures, fignum, step, 0);
+		if (hit >= 0) {
+			figs[fignum].setOffset(curr);
+			moved(figs[fignum]);
+			return hit;
+		}
 
 		// Move graphical object to its new Location
 		figs[fignum].setOffset(curr);
@@ -97,11 +99,12 @@ public class MoveFigure {
 
 		// Check that graphical objects do not overlap
 		figs[fignum].setOffset(next);
-		for (int i = 0; i < numFigures; ++i)
-			if ((i != fignum) && (figs[fignum].intersects(figs[i]))) {
-				figs[fignum].setOffset(curr);
-				return i;
-			}
+		int hit = firstHit(figs, numFigures, fignum, 0, step);
+		if (hit >= 0) {
+			figs[fignum].setOffset(curr);
+			moved(figs[fignum]);
+			return hit;
+		}
 
 		// Move graphical object to its new Location
 		figs[fignum].setOffset(curr);
@@ -131,11 +134,12 @@ public class MoveFigure {
 
 		// Check that graphical objects do not overlap
 		figs[fignum].setOffset(next);
-		for (int i = 0; i < numFigures; ++i)
-			if ((i != fignum) && (figs[fignum].intersects(figs[i]))) {
-				figs[fignum].setOffset(curr);
-				return i;
-			}
+		int hit = firstHit(figs, numFigures, fignum, 0, -step);
+		if (hit >= 0) {
+			figs[fignum].setOffset(curr);
+			moved(figs[fignum]);
+			return hit;
+		}
 
 		// Draw graphical object in its new Location
 		figs[fignum].setOffset(curr);
@@ -144,4 +148,84 @@ public class MoveFigure {
 		environment.drawFigure(figs[fignum]);
 		return -2;
 	}
+
+	/* ============================================ */
+	private int firstHit(GraphicalFigure[] figs, int numFigures, int fignum, int dx, int dy)
+	/* ============================================ */
+	/*
+	 * Return the index of the first graphical object hit by the one specified by the
+	 * third argument, which has just moved by (dx,dy), or -1 if it hits none. Objects
+	 * did not overlap before the move, so only the leading edge of the moving object
+	 * is tested, and only against the objects the broad phase pairs it with at its
+	 * new offset; objects marked by markOverlaps are tested in full. The broad phase
+	 * is left with the new offset.
+	 */
+	{
+		GraphicalFigure fig = figs[fignum];
+		BroadPhase index = environment.getBroadPhase();
+
+		if (index == null) {
+			for (int i = 0; i < numFigures; ++i)
+				if ((i != fignum) && fig.intersectsAfterMove(figs[i], dx, dy))
+					return i;
+			return -1;
+		}
+		index.update(fig);
+		for (int i : index.candidates(fig))
+			if ((i < numFigures) && fig.intersectsAfterMove(figs[i], dx, dy))
+				return i;
+		return -1;
+	}
+
+	/* ============================================ */
+	public static int markOverlaps(GraphicalFigure[] figs, int numFigures, BroadPhase index)
+	/* ============================================ */
+	/*
+	 * Mark every graphical object that overlaps another one, so the moves of the
+	 * pair are tested in full instead of by leading edge. Pairs are taken from
+	 * the broad phase, which must hold the objects, or from all pairs if it is
+	 * null. Return the number of objects marked.
+	 */
+	{
+		int marked = 0;
+
+		for (int i = 0; i < numFigures; ++i) {
+			if (index == null) {
+				for (int j = i + 1; j < numFigures; ++j)
+					marked += markPair(figs[i], figs[j]);
+				continue;
+			}
+			for (int j : index.candidates(figs[i]))
+				if ((j > i) && (j < numFigures))
+					marked += markPair(figs[i], figs[j]);
+		}
+		return marked;
+	}
+
+	/* ============================================ */
+	private static int markPair(GraphicalFigure a, GraphicalFigure b)
+	/* ============================================ */
+	/*
+	 * Mark both graphical objects if they overlap, returning how many were not marked before
+	 */
+	{
+		if ((a.isOverlapped() && b.isOverlapped()) || !a.intersects(b))
+			return 0;
+		int marked = (a.isOverlapped() ? 0 : 1) + (b.isOverlapped() ? 0 : 1);
+		a.markOverlapped();
+		b.markOverlapped();
+		return marked;
+	}
+
+	/* ============================================ */
+	private void moved(GraphicalFigure fig)
+	/* ============================================ */
+	/*
+	 * Tell the broad phase that the given graphical object has a new offset
+	 */
+	{
+		BroadPhase index = environment.getBroadPhase();
+		if (index != null)
+			index.update(fig);
+	}
 }
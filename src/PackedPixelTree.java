@@ -0,0 +1,511 @@
+import java.util.Arrays;
+
+/**
+ * This class implements the ordered dictionary of BinarySearchTree without
+ * creating an object per pixel. The nodes of the tree are slots of parallel
+ * primitive arrays: the packed Location key (see Location.pack), the colour,
+ * and the indices of the left child, right child and parent of the node.
+ * A missing node is the index NIL, which plays the role of the leaves.
+ *
+ * The operations of BinarySearchTreeADT take and return node indices instead
+ * of BinaryNode and Pixel objects; xCoord, yCoord and getColor read the data
+ * stored in a node. Removing a node moves the last slot into its place, so the
+ * used slots are always 0..size()-1. Like BinarySearchTree the tree is not
+ * rebalanced, and it has no bulk loader like BinarySearchTree.fromRaster, so
+ * its depth depends on the order the pixels are put in. Callers should put
+ * the middle pixel first and then, the same way, the pixels before it and
+ * those after it, as Benchmark.insertPoints does for the pixels of an image.
+ * Putting the pixels in sorted order, such as column by column from an
+ * image, makes the tree a list n nodes deep.
+ */
+public class PackedPixelTree {
+
+	/**
+	 * Index of a missing node
+	 */
+	public static final int NIL = -1;
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private long[] keys;
+	private int[] colors;
+	private int[] left;
+	private int[] right;
+	private int[] parent;
+	private int root;
+	private int size;
+
+	/**
+	 * A constructor that creates an empty tree
+	 */
+	public PackedPixelTree() {
+		this(16);
+	}
+
+	/**
+	 * A constructor that creates an empty tree with room for the given number
+	 * of pixels before its arrays need to grow
+	 * @param capacity
+	 * 		the expected number of pixels
+	 */
+	public PackedPixelTree(int capacity) {
+		capacity = Math.max(capacity, 1);
+		keys = new long[capacity];
+		colors = new int[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		parent = new int[capacity];
+		root = NIL;
+		size = 0;
+	}
+
+	/**
+	 * Returns the root of the tree
+	 * @return
+	 * 		the index of the root, NIL if the tree is empty
+	 */
+	public int getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the number of pixels stored in the tree
+	 * @return
+	 * 		number of pixels
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the x coordinate of the pixel stored in the given node
+	 * @param node
+	 * 		index of the node
+	 * @return
+	 * 		x coordinate
+	 */
+	public int xCoord(int node) {
+		return Location.xOf(keys[node]);
+	}
+
+	/**
+	 * Returns the y coordinate of the pixel stored in the given node
+	 * @param node
+	 * 		index of the node
+	 * @return
+	 * 		y coordinate
+	 */
+	public int yCoord(int node) {
+		return Location.yOf(keys[node]);
+	}
+
+	/**
+	 * Returns the colour of the pixel stored in the given node
+	 * @param node
+	 * 		index of the node
+	 * @return
+	 * 		colour of the pixel
+	 */
+	public int getColor(int node) {
+		return colors[node];
+	}
+
+	/**
+	 * Returns the node storing the pixel at (x,y), if it is stored in the
+	 * tree. Returns NIL otherwise.
+	 * @param x
+	 * 		x coordinate of the key
+	 * @param y
+	 * 		y coordinate of the key
+	 * @return
+	 * 		index of the node storing the key, NIL if not in tree
+	 */
+	public int get(int x, int y) {
+		long key = Location.pack(x, y);
+		int node = root;
+
+		while (node != NIL && keys[node] != key) {
+			node = keys[node] > key ? left[node] : right[node];
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the Pixel object storing the given key, if the key is stored in
+	 * the tree. Returns null otherwise. The Pixel is created by this call.
+	 * @param key
+	 * 		the key we want to return the corresponding pixel of
+	 * @return
+	 * 		the pixel storing the given key if in tree
+	 * 		null otherwise
+	 */
+	public Pixel get(Location key) {
+		int node = get(key.xCoord(), key.yCoord());
+		if (node == NIL) {
+			return null;
+		}
+		return new Pixel(key, colors[node]);
+	}
+
+	/**
+	 * Inserts the pixel at (x,y) in the tree if no pixel with the same key is
+	 * already there. If a node already stores the same key, the algorithm
+	 * throws a DuplicatedKeyException.
+	 * @param x
+	 * 		x coordinate of the pixel
+	 * @param y
+	 * 		y coordinate of the pixel
+	 * @param color
+	 * 		colour of the pixel
+	 * @throws
+	 * 		DuplicatedKeyException if a node already stores the same key
+	 */
+	public void put(int x, int y, int color) throws DuplicatedKeyException {
+		long key = Location.pack(x, y);
+		int above = NIL;
+		int node = root;
+
+		//Walk down to the missing node where the key belongs
+		while (node != NIL) {
+			if (keys[node] == key) {
+				throw new DuplicatedKeyException();
+			}
+			above = node;
+			node = keys[node] > key ? left[node] : right[node];
+		}
+
+		if (size == keys.length) {
+			grow();
+		}
+		node = size++;
+		keys[node] = key;
+		colors[node] = color;
+		left[node] = NIL;
+		right[node] = NIL;
+		parent[node] = above;
+
+		if (above == NIL) {
+			root = node;
+		}
+		else if (keys[above] > key) {
+			left[above] = node;
+		}
+		else {
+			right[above] = node;
+		}
+	}
+
+	/**
+	 * Inserts the given data in the tree if no data item with the same key is
+	 * already there. If a node already stores the same key, the algorithm
+	 * throws a DuplicatedKeyException.
+	 * @param data
+	 * 		the pixel we want to add
+	 * @throws
+	 * 		DuplicatedKeyException if a node already stores the same key
+	 */
+	public void put(Pixel data) throws DuplicatedKeyException {
+		put(data.getLocation().xCoord(), data.getLocation().yCoord(), data.getColor());
+	}
+
+	/**
+	 * Removes the pixel at (x,y), if it is stored in the tree. Throws an
+	 * InexistentKeyException otherwise.
+	 * @param x
+	 * 		x coordinate of the key
+	 * @param y
+	 * 		y coordinate of the key
+	 * @throws
+	 * 		InexistentKeyException if the key isn't in the tree
+	 */
+	public void remove(int x, int y) throws InexistentKeyException {
+		int node = get(x, y);
+
+		if (node == NIL) {
+			throw new InexistentKeyException();
+		}
+
+		//A node with two children takes the data of its successor, which is removed instead
+		if (left[node] != NIL && right[node] != NIL) {
+			int smallest = smallestBelow(right[node]);
+			keys[node] = keys[smallest];
+			colors[node] = colors[smallest];
+			node = smallest;
+		}
+
+		//Splice out the node, which has at most one child
+		int child = left[node] != NIL ? left[node] : right[node];
+		replaceChild(parent[node], node, child);
+		if (child != NIL) {
+			parent[child] = parent[node];
+		}
+
+		//Move the last slot into the freed one so slots stay contiguous
+		int last = --size;
+		if (node != last) {
+			keys[node] = keys[last];
+			colors[node] = colors[last];
+			left[node] = left[last];
+			right[node] = right[last];
+			parent[node] = parent[last];
+			replaceChild(parent[node], last, node);
+			if (left[node] != NIL) {
+				parent[left[node]] = node;
+			}
+			if (right[node] != NIL) {
+				parent[right[node]] = node;
+			}
+		}
+	}
+
+	/**
+	 * Returns the node with the smallest key larger than (x,y) (the tree does
+	 * not need to store that key). Returns NIL if the key has no successor.
+	 * @param x
+	 * 		x coordinate of the key
+	 * @param y
+	 * 		y coordinate of the key
+	 * @return
+	 * 		index of the successor, NIL if none
+	 */
+	public int successor(int x, int y) {
+		long key = Location.pack(x, y);
+		int node = root;
+		int candidate = NIL;
+
+		while (node != NIL) {
+			if (keys[node] > key) {
+				candidate = node;
+				node = left[node];
+			}
+			else {
+				node = right[node];
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * Returns the node with the largest key smaller than (x,y) (the tree does
+	 * not need to store that key). Returns NIL if the key has no predecessor.
+	 * @param x
+	 * 		x coordinate of the key
+	 * @param y
+	 * 		y coordinate of the key
+	 * @return
+	 * 		index of the predecessor, NIL if none
+	 */
+	public int predecessor(int x, int y) {
+		long key = Location.pack(x, y);
+		int node = root;
+		int candidate = NIL;
+
+		while (node != NIL) {
+			if (keys[node] < key) {
+				candidate = node;
+				node = right[node];
+			}
+			else {
+				node = left[node];
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * Returns the node following the given one in key order, using the parent
+	 * links instead of a search from the root
+	 * @param node
+	 * 		index of a node of the tree
+	 * @return
+	 * 		index of the next node, NIL if node is the largest
+	 */
+	public int next(int node) {
+		if (right[node] != NIL) {
+			return smallestBelow(right[node]);
+		}
+		int above = parent[node];
+		while (above != NIL && right[above] == node) {
+			node = above;
+			above = parent[node];
+		}
+		return above;
+	}
+
+	/**
+	 * Visits every pixel of the tree in increasing order of the keys until the
+	 * consumer returns false
+	 * @param consumer
+	 * 		the visitor called with the coordinates and colour of each pixel
+	 * @return
+	 * 		true if every pixel was visited, false if the consumer stopped the walk
+	 */
+	public boolean forEach(PixelConsumer consumer) {
+		if (root == NIL) {
+			return true;
+		}
+		for (int node = smallestBelow(root); node != NIL; node = next(node)) {
+			if (!consumer.accept(Location.xOf(keys[node]), Location.yOf(keys[node]), colors[node])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Visits the pixels inside the rectangle with corners (minX,minY) and
+	 * (maxX,maxY), bounds included, in key order until the consumer returns
+	 * false. Each column of the rectangle is one run of consecutive keys.
+	 * @param minX
+	 * 		smallest x coordinate
+	 * @param minY
+	 * 		smallest y coordinate
+	 * @param maxX
+	 * 		largest x coordinate
+	 * @param maxY
+	 * 		largest y coordinate
+	 * @param consumer
+	 * 		the visitor called with the coordinates and colour of each pixel
+	 * @return
+	 * 		true if every pixel in the rectangle was visited, false if the consumer stopped the walk
+	 */
+	public boolean rangeQuery(int minX, int minY, int maxX, int maxY, PixelConsumer consumer) {
+		int node = ceiling(minX, minY);
+
+		while (node != NIL) {
+			int x = Location.xOf(keys[node]);
+			int y = Location.yOf(keys[node]);
+
+			if (x > maxX) {
+				break;
+			}
+			if (y < minY) {
+				node = ceiling(x, minY);
+			}
+			else if (y > maxY) {
+				if (x == maxX) {
+					break;
+				}
+				node = ceiling(x + 1, minY);
+			}
+			else {
+				if (!consumer.accept(x, y, colors[node])) {
+					return false;
+				}
+				node = next(node);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the node with the smallest key not smaller than (x,y)
+	 * @param x
+	 * 		x coordinate of the key
+	 * @param y
+	 * 		y coordinate of the key
+	 * @return
+	 * 		index of the node, NIL if every key is smaller
+	 */
+	public int ceiling(int x, int y) {
+		long key = Location.pack(x, y);
+		int node = root;
+		int candidate = NIL;
+
+		while (node != NIL) {
+			if (keys[node] == key) {
+				return node;
+			}
+			if (keys[node] > key) {
+				candidate = node;
+				node = left[node];
+			}
+			else {
+				node = right[node];
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * Returns the node with the smallest key. Throws an EmptyTreeException if
+	 * the tree is empty.
+	 * @return
+	 * 		index of the node with the smallest key
+	 * @throws
+	 * 		EmptyTreeException if the tree is empty
+	 */
+	public int smallest() throws EmptyTreeException {
+		if (root == NIL) {
+			throw new EmptyTreeException();
+		}
+		return smallestBelow(root);
+	}
+
+	/**
+	 * Returns the node with the largest key. Throws an EmptyTreeException if
+	 * the tree is empty.
+	 * @return
+	 * 		index of the node with the largest key
+	 * @throws
+	 * 		EmptyTreeException if the tree is empty
+	 */
+	public int largest() throws EmptyTreeException {
+		if (root == NIL) {
+			throw new EmptyTreeException();
+		}
+		int node = root;
+		while (right[node] != NIL) {
+			node = right[node];
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the node with the smallest key in the subtree of the given node
+	 * @param node
+	 * 		index of the root of the subtree
+	 * @return
+	 * 		index of the leftmost node of the subtree
+	 */
+	private int smallestBelow(int node) {
+		while (left[node] != NIL) {
+			node = left[node];
+		}
+		return node;
+	}
+
+	/**
+	 * Makes newChild take the place of oldChild under the given parent
+	 * @param above
+	 * 		index of the parent, NIL if oldChild is the root
+	 * @param oldChild
+	 * 		index of the child being replaced
+	 * @param newChild
+	 * 		index of the replacement, may be NIL
+	 */
+	private void replaceChild(int above, int oldChild, int newChild) {
+		if (above == NIL) {
+			root = newChild;
+		}
+		else if (left[above] == oldChild) {
+			left[above] = newChild;
+		}
+		else {
+			right[above] = newChild;
+		}
+	}
+
+	/**
+	 * Doubles the capacity of the arrays
+	 */
+	private void grow() {
+		int capacity = keys.length * 2;
+		keys = Arrays.copyOf(keys, capacity);
+		colors = Arrays.copyOf(colors, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+	}
+}
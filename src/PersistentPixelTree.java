@@ -0,0 +1,422 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * This class implements an immutable ordered dictionary of pixels keyed by
+ * Location. Its put and remove return a new version of the tree and leave the
+ * old one unchanged: only the nodes on the path to the changed key are copied,
+ * every other BinaryNode is shared between the versions. Old versions stay
+ * readable without any locking, which makes a version a cheap snapshot.
+ *
+ * Nodes are never modified once built, so they do not use their parent link.
+ * The tree is kept weight balanced with the subtree sizes stored in the nodes:
+ * neither subtree of a node has more than DELTA times the nodes of the other,
+ * so every operation takes O(log n) time and copies O(log n) nodes.
+ */
+public final class PersistentPixelTree {
+
+	/**
+	 * The empty tree
+	 */
+	public static final PersistentPixelTree EMPTY = new PersistentPixelTree(BinaryNode.LEAF);
+
+	private static final int DELTA = 3; // Largest allowed ratio between the sizes of two siblings
+	private static final int RATIO = 2; // Ratio deciding between a single and a double rotation
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final BinaryNode root;
+
+	/**
+	 * A constructor for a version whose root is the given node
+	 * @param root
+	 * 		the root of the version
+	 */
+	private PersistentPixelTree(BinaryNode root) {
+		this.root = root;
+	}
+
+	/**
+	 * Builds a tree from pixels given in increasing order of their keys, in
+	 * linear time
+	 * @param pixels
+	 * 		the pixels, sorted by Location
+	 * @return
+	 * 		a tree storing the given pixels
+	 * @throws
+	 * 		DuplicatedKeyException if two pixels have the same key
+	 * 		IllegalArgumentException if the pixels are not sorted
+	 */
+	public static PersistentPixelTree fromSorted(Iterator<Pixel> pixels) throws DuplicatedKeyException {
+		ArrayList<Pixel> sorted = new ArrayList<Pixel>();
+
+		while (pixels.hasNext()) {
+			Pixel pix = pixels.next();
+			if (!sorted.isEmpty()) {
+				int comparison = sorted.get(sorted.size() - 1).getLocation().compareTo(pix.getLocation());
+				if (comparison == 0) {
+					throw new DuplicatedKeyException();
+				}
+				if (comparison > 0) {
+					throw new IllegalArgumentException("Pixels are not sorted by location");
+				}
+			}
+			sorted.add(pix);
+		}
+		return new PersistentPixelTree(build(sorted, 0, sorted.size() - 1));
+	}
+
+	/**
+	 * Returns the root of this version
+	 * @return
+	 * 		the root, a leaf if the tree is empty
+	 */
+	public BinaryNode getRoot() {
+		return root;
+	}
+
+	/**
+	 * Returns the number of pixels stored in this version
+	 * @return
+	 * 		number of pixels
+	 */
+	public int size() {
+		return root.getSize();
+	}
+
+	/**
+	 * Returns the Pixel object storing the given key, if the key is stored in
+	 * the tree. Returns null otherwise.
+	 * @param key
+	 * 		the key we want to return the corresponding pixel of
+	 * @return
+	 * 		the pixel storing the given key if in tree
+	 * 		null otherwise
+	 */
+	public Pixel get(Location key) {
+		BinaryNode node = root;
+
+		while (!node.isLeaf()) {
+			int comparison = node.getData().getLocation().compareTo(key);
+			if (comparison == 0) {
+				return node.getData();
+			}
+			node = comparison > 0 ? node.getLeft() : node.getRight();
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a new version that also stores the given data. This version is
+	 * not changed. If a node already stores the same key, the algorithm throws
+	 * a DuplicatedKeyException.
+	 * @param data
+	 * 		the pixel we want to add
+	 * @return
+	 * 		the new version
+	 * @throws
+	 * 		DuplicatedKeyException if a node already stores the same key
+	 */
+	public PersistentPixelTree put(Pixel data) throws DuplicatedKeyException {
+		return new PersistentPixelTree(insert(root, data));
+	}
+
+	/**
+	 * Returns a new version without the data item with the given key. This
+	 * version is not changed. Throws an InexistentKeyException if the key is
+	 * not stored in the tree.
+	 * @param key
+	 * 		the key of the data item we want to remove
+	 * @return
+	 * 		the new version
+	 * @throws
+	 * 		InexistentKeyException if the key isn't in the tree
+	 */
+	public PersistentPixelTree remove(Location key) throws InexistentKeyException {
+		return new PersistentPixelTree(delete(root, key));
+	}
+
+	/**
+	 * Returns the Pixel with the smallest key larger than the given one (the
+	 * tree does not need to store the key). Returns null if there is none.
+	 * @param key
+	 * 		the key
+	 * @return
+	 * 		Pixel with the smallest key larger than the given one, null if none
+	 */
+	public Pixel successor(Location key) {
+		BinaryNode node = root;
+		Pixel candidate = null;
+
+		while (!node.isLeaf()) {
+			if (node.getData().getLocation().compareTo(key) > 0) {
+				candidate = node.getData();
+				node = node.getLeft();
+			}
+			else {
+				node = node.getRight();
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * Returns the Pixel with the largest key smaller than the given one (the
+	 * tree does not need to store the key). Returns null if there is none.
+	 * @param key
+	 * 		the key
+	 * @return
+	 * 		Pixel with the largest key smaller than the given one, null if none
+	 */
+	public Pixel predecessor(Location key) {
+		BinaryNode node = root;
+		Pixel candidate = null;
+
+		while (!node.isLeaf()) {
+			if (node.getData().getLocation().compareTo(key) < 0) {
+				candidate = node.getData();
+				node = node.getRight();
+			}
+			else {
+				node = node.getLeft();
+			}
+		}
+		return candidate;
+	}
+
+	/**
+	 * Returns the Pixel with the smallest key. Throws an EmptyTreeException if
+	 * the tree is empty.
+	 * @return
+	 * 		The Pixel with the smallest key
+	 * @throws
+	 * 		EmptyTreeException if the tree is empty
+	 */
+	public Pixel smallest() throws EmptyTreeException {
+		if (root.isLeaf()) {
+			throw new EmptyTreeException();
+		}
+		BinaryNode node = root;
+		while (!node.getLeft().isLeaf()) {
+			node = node.getLeft();
+		}
+		return node.getData();
+	}
+
+	/**
+	 * Returns the Pixel with the largest key. Throws an EmptyTreeException if
+	 * the tree is empty.
+	 * @return
+	 * 		The Pixel with the largest key
+	 * @throws
+	 * 		EmptyTreeException if the tree is empty
+	 */
+	public Pixel largest() throws EmptyTreeException {
+		if (root.isLeaf()) {
+			throw new EmptyTreeException();
+		}
+		BinaryNode node = root;
+		while (!node.getRight().isLeaf()) {
+			node = node.getRight();
+		}
+		return node.getData();
+	}
+
+	/**
+	 * Visits every pixel of this version in increasing order of the keys until
+	 * the consumer returns false
+	 * @param consumer
+	 * 		the visitor called with the coordinates and colour of each pixel
+	 * @return
+	 * 		true if every pixel was visited, false if the consumer stopped the walk
+	 */
+	public boolean forEach(PixelConsumer consumer) {
+		return visit(root, null, null, consumer);
+	}
+
+	/**
+	 * Visits the pixels inside the rectangle with corners min and max (bounds
+	 * included) in key order, until the consumer returns false. Subtrees whose
+	 * keys are all outside the key range from min to max are skipped.
+	 * @param min
+	 * 		the corner with the smallest coordinates
+	 * @param max
+	 * 		the corner with the largest coordinates
+	 * @param consumer
+	 * 		the visitor called with the coordinates and colour of each pixel
+	 * @return
+	 * 		true if every pixel in the rectangle was visited, false if the consumer stopped the walk
+	 */
+	public boolean rangeQuery(Location min, Location max, PixelConsumer consumer) {
+		return visit(root, min, max, consumer);
+	}
+
+	/**
+	 * Visits in key order the pixels of the subtree that are inside the
+	 * rectangle with corners min and max, or all of them if min is null
+	 * @param node
+	 * 		the root of the subtree
+	 * @param min
+	 * 		the corner with the smallest coordinates, null for no limit
+	 * @param max
+	 * 		the corner with the largest coordinates, null for no limit
+	 * @param consumer
+	 * 		the visitor
+	 * @return
+	 * 		true if the walk was not stopped
+	 */
+	private static boolean visit(BinaryNode node, Location min, Location max, PixelConsumer consumer) {
+		if (node.isLeaf()) {
+			return true;
+		}
+		Location key = node.getData().getLocation();
+		boolean aboveMin = min == null || key.compareTo(min) > 0;
+		boolean belowMax = max == null || key.compareTo(max) < 0;
+
+		if (aboveMin && !visit(node.getLeft(), min, max, consumer)) {
+			return false;
+		}
+		if (min == null || (key.xCoord() >= min.xCoord() && key.xCoord() <= max.xCoord()
+				&& key.yCoord() >= min.yCoord() && key.yCoord() <= max.yCoord())) {
+			if (!consumer.accept(key.xCoord(), key.yCoord(), node.getData().getColor())) {
+				return false;
+			}
+		}
+		return !belowMax || visit(node.getRight(), min, max, consumer);
+	}
+
+	/**
+	 * Returns a copy of the subtree that also stores data
+	 * @param node
+	 * 		the root of the subtree
+	 * @param data
+	 * 		the pixel to add
+	 * @return
+	 * 		the root of the new subtree
+	 */
+	private static BinaryNode insert(BinaryNode node, Pixel data) throws DuplicatedKeyException {
+		if (node.isLeaf()) {
+			return new BinaryNode(data, BinaryNode.LEAF, BinaryNode.LEAF, null);
+		}
+		int comparison = node.getData().getLocation().compareTo(data.getLocation());
+		if (comparison == 0) {
+			throw new DuplicatedKeyException();
+		}
+		if (comparison > 0) {
+			return balance(node.getData(), insert(node.getLeft(), data), node.getRight());
+		}
+		return balance(node.getData(), node.getLeft(), insert(node.getRight(), data));
+	}
+
+	/**
+	 * Returns a copy of the subtree without the given key
+	 * @param node
+	 * 		the root of the subtree
+	 * @param key
+	 * 		the key to remove
+	 * @return
+	 * 		the root of the new subtree
+	 */
+	private static BinaryNode delete(BinaryNode node, Location key) throws InexistentKeyException {
+		if (node.isLeaf()) {
+			throw new InexistentKeyException();
+		}
+		int comparison = node.getData().getLocation().compareTo(key);
+		if (comparison > 0) {
+			return balance(node.getData(), delete(node.getLeft(), key), node.getRight());
+		}
+		if (comparison < 0) {
+			return balance(node.getData(), node.getLeft(), delete(node.getRight(), key));
+		}
+
+		//Join the two subtrees, moving up a pixel from the larger one
+		if (node.getLeft().isLeaf()) {
+			return node.getRight();
+		}
+		if (node.getRight().isLeaf()) {
+			return node.getLeft();
+		}
+		if (node.getLeft().getSize() > node.getRight().getSize()) {
+			Pixel largest = largestIn(node.getLeft());
+			return balance(largest, delete(node.getLeft(), largest.getLocation()), node.getRight());
+		}
+		Pixel smallest = smallestIn(node.getRight());
+		return balance(smallest, node.getLeft(), delete(node.getRight(), smallest.getLocation()));
+	}
+
+	/**
+	 * Returns a node storing data with the given subtrees, rotating when one
+	 * subtree has become more than DELTA times larger than the other
+	 * @param data
+	 * 		the pixel of the node
+	 * @param left
+	 * 		the left subtree
+	 * @param right
+	 * 		the right subtree
+	 * @return
+	 * 		the root of the balanced subtree
+	 */
+	private static BinaryNode balance(Pixel data, BinaryNode left, BinaryNode right) {
+		int leftSize = left.getSize();
+		int rightSize = right.getSize();
+
+		if (leftSize + rightSize > 1) {
+			if (rightSize > DELTA * leftSize) {
+				BinaryNode inner = right.getLeft();
+				if (inner.getSize() < RATIO * right.getRight().getSize()) {
+					return node(right.getData(), node(data, left, inner), right.getRight());
+				}
+				return node(inner.getData(), node(data, left, inner.getLeft()),
+						node(right.getData(), inner.getRight(), right.getRight()));
+			}
+			if (leftSize > DELTA * rightSize) {
+				BinaryNode inner = left.getRight();
+				if (inner.getSize() < RATIO * left.getLeft().getSize()) {
+					return node(left.getData(), left.getLeft(), node(data, inner, right));
+				}
+				return node(inner.getData(), node(left.getData(), left.getLeft(), inner.getLeft()),
+						node(data, inner.getRight(), right));
+			}
+		}
+		return node(data, left, right);
+	}
+
+	/**
+	 * Returns a new node with the given data and subtrees
+	 */
+	private static BinaryNode node(Pixel data, BinaryNode left, BinaryNode right) {
+		return new BinaryNode(data, left, right, null);
+	}
+
+	/**
+	 * Returns the pixel with the smallest key of a non empty subtree
+	 */
+	private static Pixel smallestIn(BinaryNode node) {
+		while (!node.getLeft().isLeaf()) {
+			node = node.getLeft();
+		}
+		return node.getData();
+	}
+
+	/**
+	 * Returns the pixel with the largest key of a non empty subtree
+	 */
+	private static Pixel largestIn(BinaryNode node) {
+		while (!node.getRight().isLeaf()) {
+			node = node.getRight();
+		}
+		return node.getData();
+	}
+
+	/**
+	 * Builds a perfectly balanced subtree from sorted[first..last]
+	 */
+	private static BinaryNode build(ArrayList<Pixel> sorted, int first, int last) {
+		if (first > last) {
+			return BinaryNode.LEAF;
+		}
+		int middle = (first + last) >>> 1;
+		return node(sorted.get(middle), build(sorted, first, middle - 1), build(sorted, middle + 1, last));
+	}
+}
@@ -0,0 +1,9 @@
+
+public interface PixelConsumer {
+
+	/*
+	 * Visits the pixel at (x,y) with the given colour. Returns true to continue
+	 * with the next pixel, false to stop the traversal.
+	 */
+	public boolean accept(int x, int y, int color);
+}
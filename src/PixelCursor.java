@@ -0,0 +1,103 @@
+/**
+ * This class walks the pixels of a BinarySearchTree in increasing order of
+ * their keys, in either direction. It moves between neighbouring nodes with the
+ * parent links of the nodes, so a full walk visits every node at most three
+ * times instead of searching again from the root for every pixel.
+ * The cursor must not be used after the tree is modified.
+ */
+public class PixelCursor {
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private BinarySearchTree tree;
+	private BinaryNode current; // Node of the last pixel returned, null before the first or after the last
+	private boolean atEnd; // true when the cursor has moved past the last pixel
+	
+	/**
+	 * A constructor that places the cursor before the first pixel of the tree
+	 * @param tree
+	 * 		the tree to walk
+	 */
+	public PixelCursor(BinarySearchTree tree) {
+		this.tree = tree;
+		this.current = null;
+		this.atEnd = false;
+	}
+	
+	/**
+	 * A constructor that places the cursor so that next returns the given node
+	 * @param tree
+	 * 		the tree to walk
+	 * @param start
+	 * 		the node next returns first, a leaf to start after the last pixel
+	 */
+	PixelCursor(BinarySearchTree tree, BinaryNode start) {
+		this.tree = tree;
+		if (start.isLeaf()) {
+			this.current = null;
+			this.atEnd = true;
+		}
+		else {
+			//Starting at the smallest pixel is the same as starting before the first one
+			BinaryNode previous = tree.previousNode(start);
+			this.current = previous.isLeaf() ? null : previous;
+			this.atEnd = false;
+		}
+	}
+	
+	/**
+	 * Moves to the next pixel and returns it
+	 * @return
+	 * 		the next pixel, null if the cursor is past the last one
+	 */
+	public Pixel next() {
+		if (atEnd) {
+			return null;
+		}
+		if (current == null) {
+			current = tree.getRoot().isLeaf() ? BinaryNode.LEAF : tree.smallestNode(tree.getRoot());
+		}
+		else {
+			current = tree.nextNode(current);
+		}
+		return position();
+	}
+	
+	/**
+	 * Moves to the previous pixel and returns it
+	 * @return
+	 * 		the previous pixel, null if the cursor is before the first one
+	 */
+	public Pixel prev() {
+		if (current == null && !atEnd) {
+			return null;
+		}
+		if (current == null) {
+			atEnd = false;
+			current = tree.getRoot().isLeaf() ? BinaryNode.LEAF : tree.largestNode(tree.getRoot());
+		}
+		else {
+			current = tree.previousNode(current);
+		}
+		if (current.isLeaf()) {
+			current = null;
+			return null;
+		}
+		return current.getData();
+	}
+	
+	/**
+	 * Returns the pixel at the new position of the cursor after moving forward
+	 * @return
+	 * 		the pixel, null if the cursor moved past the last one
+	 */
+	private Pixel position() {
+		if (current.isLeaf()) {
+			current = null;
+			atEnd = true;
+			return null;
+		}
+		return current.getData();
+	}
+}
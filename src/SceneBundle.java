@@ -0,0 +1,255 @@
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class loads a scene compiled by SceneCompiler. The bundle is mapped
+ * into memory with FileChannel.map and its shapes are copied out of the
+ * mapping as whole arrays: no image is decoded, no pixel is tested for
+ * transparency and no pixel is inserted in a tree one by one.
+ *
+ * A bundle is big endian and holds, in order:
+ * - a header: MAGIC, VERSION, the threshold the images were compiled with,
+ *   the number of shapes and the number of figures, all ints;
+ * - each distinct shape: its width, height and number n of opaque pixels
+ *   (ints), the hash of its image file (a short length and UTF-8 bytes), the
+ *   n packed keys of its opaque pixels in increasing order (longs), their n
+ *   colours (ints), the (width + 63) / 64 words per row of its collision mask
+ *   (longs) and the width x height pixels of its drawing sprite, row by row,
+ *   with alpha 0 where transparent (ints);
+ * - each figure, in the order of the scene file: x, y and the index of its
+ *   shape (ints) and its type (a short length and UTF-8 bytes).
+ *
+ * Every size is checked against the rest of the file before anything is
+ * allocated for it, and the pixels of each shape against its size and its
+ * mask, so a damaged bundle is refused when it is opened.
+ */
+public final class SceneBundle {
+
+	/**
+	 * First int of every bundle, "SCNB" in ASCII
+	 */
+	public static final int MAGIC = 0x53434e42;
+
+	/**
+	 * Version of the layout of the bundle
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final ShapeAsset[] shapes;
+	private final ByteBuffer figures; // Mapped records of the figures, from the first one
+	private final int numFigures; // Figures published, at most the limit given to open
+	private final int threshold;
+
+	private SceneBundle(ShapeAsset[] shapes, ByteBuffer figures, int numFigures, int threshold) {
+		this.shapes = shapes;
+		this.figures = figures;
+		this.numFigures = numFigures;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Returns true if the given file starts like a scene bundle
+	 * @param name
+	 * 		name of the file
+	 * @return
+	 * 		true if the file is a bundle
+	 */
+	public static boolean isBundle(String name) {
+		File file = new File(name);
+		if (!file.isFile() || file.length() < 4) {
+			return false;
+		}
+		try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+			return input.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Smallest number of bytes of a shape and of a figure: their ints and an empty string
+	 */
+	private static final int MIN_SHAPE_BYTES = 14;
+	private static final int MIN_FIGURE_BYTES = 14;
+
+	/**
+	 * Maps the given bundle and builds its shapes
+	 * @param name
+	 * 		name of the bundle
+	 * @param threshold
+	 * 		transparency threshold the images must have been compiled with
+	 * @param background
+	 * 		colour the erasing sprites paint the opaque pixels with
+	 * @return
+	 * 		the bundle
+	 * @throws IOException
+	 * 		if the file cannot be read, is not a bundle of this version, was
+	 * 		compiled with another threshold or is damaged
+	 */
+	public static SceneBundle open(String name, int threshold, int background) throws IOException {
+		return open(name, Integer.MAX_VALUE, threshold, background);
+	}
+
+	/**
+	 * Maps the given bundle and builds its shapes
+	 * @param name
+	 * 		name of the bundle
+	 * @param maxFigures
+	 * 		largest number of figures to publish; later figures are ignored
+	 * @param threshold
+	 * 		transparency threshold the images must have been compiled with
+	 * @param background
+	 * 		colour the erasing sprites paint the opaque pixels with
+	 * @return
+	 * 		the bundle
+	 * @throws IOException
+	 * 		if the file cannot be read, is not a bundle of this version, was
+	 * 		compiled with another threshold or is damaged
+	 */
+	public static SceneBundle open(String name, int maxFigures, int threshold, int background) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Stays valid once closed
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a scene bundle: " + name);
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException("Scene bundle " + name + " has version " + version + ", expected " + VERSION);
+			}
+			int compiled = buffer.getInt();
+			if (compiled != threshold) {
+				throw new IOException("Scene bundle " + name + " was compiled with threshold " + compiled
+						+ ", expected " + threshold);
+			}
+			int numShapes = buffer.getInt();
+			int numFigures = buffer.getInt();
+			if (numShapes < 0 || numFigures < 0 || (long) numShapes * MIN_SHAPE_BYTES > buffer.remaining()) {
+				throw new IOException("Scene bundle " + name + " is damaged: " + numShapes + " shapes, "
+						+ numFigures + " figures");
+			}
+			ShapeAsset[] shapes = new ShapeAsset[numShapes];
+
+			for (int s = 0; s < shapes.length; ++s) {
+				int width = buffer.getInt();
+				int height = buffer.getInt();
+				int n = buffer.getInt();
+				long area = (long) width * height;
+				if (width < 0 || height < 0 || area > Integer.MAX_VALUE || n < 0 || n > area) {
+					throw new IOException("Scene bundle " + name + " is damaged: shape " + s + " has " + n
+							+ " pixels in " + width + "x" + height);
+				}
+				String digest = readString(buffer);
+				long words = ((width + 63L) >>> 6) * height;
+				if (12L * n + 8L * words + 4L * area > buffer.remaining()) {
+					throw new IOException("Scene bundle " + name + " is damaged: shape " + s + " is cut short");
+				}
+				long[] keys = new long[n];
+				int[] colors = new int[n];
+				long[] mask = new long[(int) words];
+				int[] argb = new int[(int) area];
+
+				//Whole arrays are copied out of the mapping; the views do not move the buffer
+				buffer.asLongBuffer().get(keys);
+				buffer.position(buffer.position() + 8 * n);
+				buffer.asIntBuffer().get(colors);
+				buffer.position(buffer.position() + 4 * n);
+				buffer.asLongBuffer().get(mask);
+				buffer.position(buffer.position() + 8 * mask.length);
+				buffer.asIntBuffer().get(argb);
+				buffer.position(buffer.position() + 4 * argb.length);
+				shapes[s] = new ShapeAsset(width, height, keys, colors, n, mask, argb, background, digest);
+			}
+
+			if ((long) numFigures * MIN_FIGURE_BYTES > buffer.remaining()) {
+				throw new IOException("Scene bundle " + name + " is damaged: " + numFigures + " figures are cut short");
+			}
+			if (numFigures > maxFigures) {
+				System.out.println("Maximum number of figures is " + maxFigures);
+				numFigures = maxFigures;
+			}
+			return new SceneBundle(shapes, buffer.slice(), numFigures, threshold);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException("Scene bundle " + name + " is damaged", e);
+		}
+	}
+
+	/**
+	 * Returns the number of figures of the scene
+	 * @return
+	 * 		number of figures
+	 */
+	public int size() {
+		return numFigures;
+	}
+
+	/**
+	 * Returns the number of distinct shapes of the scene
+	 * @return
+	 * 		number of shapes
+	 */
+	public int getNumShapes() {
+		return shapes.length;
+	}
+
+	/**
+	 * Returns the transparency threshold the images were compiled with
+	 * @return
+	 * 		the threshold
+	 */
+	public int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Gives the figures to the listener in the order of the scene file
+	 * @param listener
+	 * 		the listener
+	 * @throws IOException
+	 * 		if the records of the figures are damaged; the figures before them have been given
+	 */
+	public void publish(SceneLoader.Listener listener) throws IOException {
+		ByteBuffer records = figures.duplicate();
+		try {
+			for (int i = 0; i < numFigures; ++i) {
+				Location pos = new Location(records.getInt(), records.getInt());
+				int shape = records.getInt();
+				String type = readString(records);
+				if (shape < 0 || shape >= shapes.length) {
+					throw new IOException("Figure " + i + " of the scene bundle has no shape " + shape);
+				}
+				listener.loaded(shapes[shape].newFigure(i, type, pos), shapes[shape]);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Scene bundle is damaged", e);
+		}
+	}
+
+	/**
+	 * Helper method that reads a string written as a short length and UTF-8 bytes
+	 * @param buffer
+	 * 		the buffer, positioned at the length
+	 * @return
+	 * 		the string
+	 */
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xffff];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,205 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * This class compiles a scene file and its images into a scene bundle (see
+ * SceneBundle), ahead of time. Every distinct image is decoded once, its
+ * transparent pixels found with the same threshold as Gui, and its opaque
+ * pixels, collision mask and sprite written out ready to be copied back.
+ * Lines that are malformed, or whose image file cannot be read or is not an
+ * image, are reported with their number and left out, as SceneLoader does.
+ * Run from the directory the image files of the scene are named from:
+ *
+ *     java SceneCompiler sceneFile bundleFile [threshold]
+ */
+public class SceneCompiler {
+
+	/**
+	 * Threshold used when none is given, the same as Gui's
+	 */
+	public static final int THRESHOLD = 225;
+
+	/* ====================================== */
+	public static void main(String[] args) {
+		/* ====================================== */
+		if (args.length < 2) {
+			System.out.println("Usage: java SceneCompiler sceneFile bundleFile [threshold]");
+			return;
+		}
+		try {
+			long start = System.nanoTime();
+			int threshold = args.length > 2 ? Integer.parseInt(args[2]) : THRESHOLD;
+			int figures = compile(args[0], args[1], threshold);
+			System.out.printf("Compiled %d figures into %s (%d bytes) in %.1f ms%n", figures, args[1],
+					new File(args[1]).length(), (System.nanoTime() - start) / 1e6);
+		} catch (IOException e) {
+			System.out.println("Error opening file. " + e.getMessage());
+		} catch (Exception e) {
+			System.out.println("Error compiling scene. " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Compiles the given scene file into a bundle
+	 * @param scene
+	 * 		name of the scene file
+	 * @param bundle
+	 * 		name of the bundle to write
+	 * @param threshold
+	 * 		pixels whose red, green and blue are all at least threshold are transparent
+	 * @return
+	 * 		number of figures compiled
+	 * @throws IOException
+	 * 		if the scene file cannot be read or the bundle cannot be written
+	 */
+	public static int compile(final String scene, String bundle, int threshold) throws IOException {
+		final ArrayList<int[]> figures = new ArrayList<int[]>(); // x, y and shape of each figure
+		final ArrayList<String> types = new ArrayList<String>();
+		final ArrayList<BufferedImage> images = new ArrayList<BufferedImage>(); // Each distinct image
+		final ArrayList<String> digests = new ArrayList<String>();
+		final HashMap<String, Integer> byFile = new HashMap<String, Integer>();
+		final HashMap<String, Integer> byContent = new HashMap<String, Integer>();
+		final HashMap<String, IOException> failed = new HashMap<String, IOException>(); // Why each bad image file was left out
+
+		//Malformed lines and lines whose image cannot be loaded are reported and left out, as SceneLoader does
+		new SceneParser().parse(scene, new SceneParser.Handler() {
+			public void figure(int line, int x, int y, String type, String file) {
+				//Images are told apart by content, as ShapeCache does
+				Integer shape = byFile.get(file);
+				if (shape == null && !failed.containsKey(file)) {
+					try {
+						byte[] content = Files.readAllBytes(new File(file).toPath());
+						String digest = ShapeCache.digest(content);
+						shape = byContent.get(digest);
+						if (shape == null) {
+							BufferedImage im = ImageIO.read(new ByteArrayInputStream(content));
+							if (im == null) {
+								throw new IOException("Not an image: " + file);
+							}
+							shape = images.size();
+							images.add(im);
+							digests.add(digest);
+							byContent.put(digest, shape);
+						}
+						byFile.put(file, shape);
+					} catch (IOException e) {
+						failed.put(file, e);
+					}
+				}
+				if (shape == null) {
+					malformed(line, SceneLoader.reason(file, failed.get(file)));
+					return;
+				}
+				figures.add(new int[] {x, y, shape});
+				types.add(type);
+			}
+
+			public void malformed(int line, String reason) {
+				System.out.println("Line " + line + " of " + scene + " skipped: " + reason);
+			}
+		});
+
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(bundle), 1 << 16))) {
+			output.writeInt(SceneBundle.MAGIC);
+			output.writeInt(SceneBundle.VERSION);
+			output.writeInt(threshold);
+			output.writeInt(images.size());
+			output.writeInt(figures.size());
+			for (int s = 0; s < images.size(); ++s) {
+				writeShape(output, images.get(s), digests.get(s), threshold);
+			}
+			for (int i = 0; i < figures.size(); ++i) {
+				output.writeInt(figures.get(i)[0]);
+				output.writeInt(figures.get(i)[1]);
+				output.writeInt(figures.get(i)[2]);
+				writeString(output, types.get(i));
+			}
+		}
+		return figures.size();
+	}
+
+	/**
+	 * Helper method that writes the shape of an image
+	 * @param output
+	 * 		the bundle
+	 * @param im
+	 * 		the image
+	 * @param digest
+	 * 		hash of the content
+	 * @param threshold
+	 * 		smallest component value of a transparent pixel
+	 * @throws IOException
+	 * 		if the bundle cannot be written
+	 */
+	private static void writeShape(DataOutputStream output, BufferedImage im, String digest, int threshold)
+			throws IOException {
+		int width = im.getWidth();
+		int height = im.getHeight();
+		int[] argb = im.getRGB(0, 0, width, height, null, 0, width);
+		long[] keys = new long[width * height];
+		int[] colors = new int[width * height];
+		CollisionMask mask = new CollisionMask(width, height);
+		int n = 0;
+
+		//Visit the image in column order, which is the order of the keys
+		for (int x = 0; x < width; ++x) {
+			for (int y = 0; y < height; ++y) {
+				int rgb = argb[y * width + x];
+				if (!BinarySearchTree.isTransparent(rgb, threshold)) {
+					keys[n] = Location.pack(x, y);
+					colors[n++] = rgb;
+					mask.set(x, y);
+				}
+			}
+		}
+		for (int i = 0; i < argb.length; ++i) {
+			if (BinarySearchTree.isTransparent(argb[i], threshold)) {
+				argb[i] = argb[i] & 0x00ffffff;
+			}
+		}
+
+		output.writeInt(width);
+		output.writeInt(height);
+		output.writeInt(n);
+		writeString(output, digest);
+		for (int i = 0; i < n; ++i) {
+			output.writeLong(keys[i]);
+		}
+		for (int i = 0; i < n; ++i) {
+			output.writeInt(colors[i]);
+		}
+		for (long word : mask.getWords()) {
+			output.writeLong(word);
+		}
+		for (int rgb : argb) {
+			output.writeInt(rgb);
+		}
+	}
+
+	/**
+	 * Helper method that writes a string as a short length and UTF-8 bytes
+	 * @param output
+	 * 		the bundle
+	 * @param s
+	 * 		the string
+	 * @throws IOException
+	 * 		if the bundle cannot be written
+	 */
+	private static void writeString(DataOutputStream output, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		output.writeShort(bytes.length);
+		output.write(bytes);
+	}
+}
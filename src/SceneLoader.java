@@ -0,0 +1,244 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class loads the figures of a scene file. Each line of the file has the
+ * form: x y type file, where (x,y) is the upper left corner of the figure,
+ * type is "fixed", "user", "computer" or "target" and file is the name of an
+ * image file in a format ImageIO reads. The file is read with SceneParser, so
+ * scenes can have any number of lines. Malformed lines, and lines whose image
+ * file cannot be read or is not an image, are reported with their number and
+ * skipped.
+ *
+ * start reads the scene file and hands every distinct image file to a pool
+ * of threads, which decode the images and build their shapes at the same
+ * time; publish then gives the figures to a listener in the order of the
+ * scene file, each one as soon as it and the figures before it are ready. The
+ * whole scene is ready when its slowest image is, instead of after the sum
+ * of all of them. Decoding is bound by the processor rather than by waiting
+ * on the disk, so the pool has about one thread per core; more threads, even
+ * the cheap virtual threads of Java 21, would only take turns on the same
+ * cores.
+ */
+public class SceneLoader {
+
+	/**
+	 * Receives the figures of a scene in the order of the scene file
+	 */
+	public interface Listener {
+
+		/**
+		 * Called once per figure, on the thread calling publish
+		 * @param fig
+		 * 		the figure, whose id is its place among the figures of the scene, from 0
+		 * @param shape
+		 * 		the shape of the figure, with its sprites
+		 */
+		public void loaded(GraphicalFigure fig, ShapeAsset shape);
+	}
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final ShapeCache shapes;
+	private final int threads;
+
+	/**
+	 * A constructor for a loader decoding images on the given number of threads
+	 * @param shapes
+	 * 		cache the shapes are loaded from
+	 * @param threads
+	 * 		number of threads decoding images
+	 */
+	public SceneLoader(ShapeCache shapes, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Number of threads must be positive");
+		}
+		this.shapes = shapes;
+		this.threads = threads;
+	}
+
+	/**
+	 * Reads the scene file and starts decoding its images in the background.
+	 * Malformed lines are reported and skipped.
+	 * @param name
+	 * 		name of the scene file
+	 * @return
+	 * 		the scene being loaded
+	 * @throws IOException
+	 * 		if the scene file cannot be read
+	 */
+	public Loading start(String name) throws IOException {
+		return start(name, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Reads the scene file and starts decoding its images in the background.
+	 * Malformed lines are reported and skipped.
+	 * @param name
+	 * 		name of the scene file
+	 * @param maxFigures
+	 * 		largest number of figures to load; later lines are ignored
+	 * @return
+	 * 		the scene being loaded
+	 * @throws IOException
+	 * 		if the scene file cannot be read
+	 */
+	public Loading start(final String name, final int maxFigures) throws IOException {
+		final Loading scene = new Loading(name);
+		final HashMap<String, Future<ShapeAsset>> tasks = new HashMap<String, Future<ShapeAsset>>();
+
+		//One task per distinct image file, submitted as soon as its first line is read
+		final ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "scene loader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			new SceneParser().parse(name, new SceneParser.Handler() {
+				public void figure(int line, int x, int y, String type, String file) {
+					if (scene.size == maxFigures) {
+						if (!scene.full) {
+							System.out.println("Maximum number of figures is " + maxFigures);
+							scene.full = true;
+						}
+						++scene.skipped;
+						return;
+					}
+					Future<ShapeAsset> task = tasks.get(file);
+					if (task == null) {
+						final File image = new File(file);
+						task = pool.submit(() -> shapes.load(image));
+						tasks.put(file, task);
+					}
+					scene.add(line, x, y, type, file, task);
+				}
+
+				public void malformed(int line, String reason) {
+					System.out.println("Line " + line + " of " + name + " skipped: " + reason);
+					++scene.skipped;
+				}
+			});
+		} finally {
+			pool.shutdown(); // The pool ends once the tasks are done
+		}
+		return scene;
+	}
+
+	/**
+	 * Returns why the given image file could not be loaded, as reported with
+	 * the lines that name it
+	 * @param file
+	 * 		name of the image file
+	 * @param cause
+	 * 		what went wrong
+	 * @return
+	 * 		the reason
+	 */
+	static String reason(String file, Throwable cause) {
+		if (cause instanceof NoSuchFileException) {
+			return "no file " + file;
+		}
+		return "cannot load " + file + ": " + (cause instanceof IOException ? cause.getMessage() : cause);
+	}
+
+	/**
+	 * A scene whose images are being decoded
+	 */
+	public static final class Loading {
+		private final String name; // Scene file, for the lines reported
+		private int size; // Figures of the scene
+		private int skipped; // Lines left out, malformed or over the limit
+		private boolean full; // True once the largest number of figures is reached
+		private int[] lines = new int[16]; // Line, offset, type, image file and shape of each figure
+		private int[] xs = new int[16];
+		private int[] ys = new int[16];
+		private String[] types = new String[16];
+		private String[] files = new String[16];
+		private final ArrayList<Future<ShapeAsset>> shapes = new ArrayList<Future<ShapeAsset>>(); // Grows by itself
+
+		private Loading(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Helper method that adds a figure, growing the arrays when they are full
+		 */
+		private void add(int line, int x, int y, String type, String file, Future<ShapeAsset> shape) {
+			if (size == xs.length) {
+				lines = Arrays.copyOf(lines, 2 * size);
+				xs = Arrays.copyOf(xs, 2 * size);
+				ys = Arrays.copyOf(ys, 2 * size);
+				types = Arrays.copyOf(types, 2 * size);
+				files = Arrays.copyOf(files, 2 * size);
+			}
+			lines[size] = line;
+			xs[size] = x;
+			ys[size] = y;
+			types[size] = type;
+			files[size] = file;
+			shapes.add(shape);
+			++size;
+		}
+
+		/**
+		 * Returns the number of figures of the scene, including those whose
+		 * image publish finds it cannot read
+		 * @return
+		 * 		number of figures
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the number of lines of the scene file left out because they
+		 * are malformed or over the largest number of figures, and, once
+		 * publish has returned, because their image could not be loaded
+		 * @return
+		 * 		number of lines skipped
+		 */
+		public int getSkipped() {
+			return skipped;
+		}
+
+		/**
+		 * Gives the figures to the listener in the order of the scene file,
+		 * waiting for each one to be ready. A line whose image file cannot be
+		 * read or is not an image is reported and skipped, like a malformed
+		 * line, and the ids of the figures after it follow on without a gap.
+		 * @param listener
+		 * 		the listener
+		 * @return
+		 * 		number of figures given
+		 * @throws InterruptedException
+		 * 		if the thread is interrupted while waiting for a figure
+		 */
+		public int publish(Listener listener) throws InterruptedException {
+			int published = 0;
+			for (int i = 0; i < size; ++i) {
+				ShapeAsset shape;
+				try {
+					shape = shapes.get(i).get();
+				} catch (ExecutionException e) {
+					System.out.println("Line " + lines[i] + " of " + name + " skipped: " + reason(files[i], e.getCause()));
+					++skipped;
+					continue;
+				}
+				listener.loaded(shape.newFigure(published++, types[i], new Location(xs[i], ys[i])), shape);
+			}
+			return published;
+		}
+	}
+}
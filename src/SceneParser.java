@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This class reads scene files of any length as a stream. Each line has the
+ * form: x y type file, with the fields separated by spaces or tabs. The file
+ * is read through a FileChannel into one reused buffer and each line is
+ * parsed from its bytes: the coordinates are parsed digit by digit and the
+ * type and file names, which repeat from line to line, are looked up in a
+ * small table so each distinct name becomes a String once. Reading a line
+ * allocates nothing else.
+ *
+ * Blank lines are skipped. A line that does not have the four fields, or
+ * whose coordinates are not integers, is reported to the handler with its
+ * number and the reading goes on with the next line.
+ */
+public final class SceneParser {
+
+	/**
+	 * Receives the lines of a scene file in order
+	 */
+	public interface Handler {
+
+		/**
+		 * Called for each well formed line
+		 * @param line
+		 * 		number of the line in the file, from 1
+		 * @param x
+		 * 		x coordinate of the upper left corner of the figure
+		 * @param y
+		 * 		y coordinate of the upper left corner of the figure
+		 * @param type
+		 * 		type of the figure
+		 * @param file
+		 * 		name of the image file of the figure
+		 */
+		public void figure(int line, int x, int y, String type, String file);
+
+		/**
+		 * Called for each line that cannot be read
+		 * @param line
+		 * 		number of the line in the file, from 1
+		 * @param reason
+		 * 		what is wrong with it
+		 */
+		public void malformed(int line, String reason);
+	}
+
+	/**
+	 * Bytes read from the file at a time; longer lines grow the buffer
+	 */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private byte[][] names = new byte[64][]; // Distinct names seen, by hash, with linear probing
+	private String[] strings = new String[64];
+	private int numNames;
+	private int start; // Position of the next field of the line being parsed
+	private String error; // Why the last field could not be parsed, null if it could
+
+	/**
+	 * Reads the given scene file, giving its lines to the handler
+	 * @param name
+	 * 		name of the scene file
+	 * @param handler
+	 * 		the handler
+	 * @return
+	 * 		number of lines read
+	 * @throws IOException
+	 * 		if the file cannot be read
+	 */
+	public int parse(String name, Handler handler) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		int line = 0;
+
+		try (FileChannel channel = FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+			boolean done = false;
+			while (!done) {
+				done = channel.read(buffer) < 0;
+				byte[] bytes = buffer.array();
+				int end = buffer.position();
+				int from = 0;
+
+				//Every complete line in the buffer, and the last one once the file ends
+				for (int i = 0; i < end; ++i) {
+					if (bytes[i] == '\n') {
+						parseLine(bytes, from, i, ++line, handler);
+						from = i + 1;
+					}
+				}
+				if (done && from < end) {
+					parseLine(bytes, from, end, ++line, handler);
+					from = end;
+				}
+
+				//The start of an incomplete line moves to the front; a line filling the buffer grows it
+				if (from == 0 && end == bytes.length) {
+					buffer = ByteBuffer.wrap(Arrays.copyOf(bytes, 2 * bytes.length));
+					buffer.position(end);
+				}
+				else {
+					System.arraycopy(bytes, from, bytes, 0, end - from);
+					buffer.position(end - from);
+				}
+			}
+		}
+		return line;
+	}
+
+	/**
+	 * Helper method that parses the line in bytes[from..to-1]
+	 */
+	private void parseLine(byte[] bytes, int from, int to, int line, Handler handler) {
+		start = from;
+		if (skipBlanks(bytes, to) == to) {
+			return; // Blank line
+		}
+		int x = parseInt(bytes, to);
+		int y = error == null ? parseInt(bytes, to) : 0;
+		String type = error == null ? parseName(bytes, to) : null;
+		String file = error == null ? parseName(bytes, to) : null;
+		if (error != null) {
+			handler.malformed(line, error);
+			error = null;
+			return;
+		}
+		handler.figure(line, x, y, type, file);
+	}
+
+	/**
+	 * Helper method that parses the next field as an int, setting error if it is not one
+	 */
+	private int parseInt(byte[] bytes, int to) {
+		int i = skipBlanks(bytes, to);
+		if (i == to) {
+			error = "missing coordinate";
+			return 0;
+		}
+		boolean negative = bytes[i] == '-';
+		if (negative || bytes[i] == '+') {
+			++i;
+		}
+		long value = 0;
+		int digits = 0;
+		for (; i < to && !isBlank(bytes[i]); ++i, ++digits) {
+			int digit = bytes[i] - '0';
+			if (digit < 0 || digit > 9) {
+				error = "coordinate is not an integer";
+				return 0;
+			}
+			value = 10 * value + digit;
+			if (value > 1L + Integer.MAX_VALUE) {
+				error = "coordinate is too large";
+				return 0;
+			}
+		}
+		if (digits == 0 || (!negative && value > Integer.MAX_VALUE)) {
+			error = digits == 0 ? "coordinate is not an integer" : "coordinate is too large";
+			return 0;
+		}
+		start = i;
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Helper method that parses the next field as a name, setting error if there is none
+	 */
+	private String parseName(byte[] bytes, int to) {
+		int first = skipBlanks(bytes, to);
+		int i = first;
+		while (i < to && !isBlank(bytes[i])) {
+			++i;
+		}
+		start = i;
+		if (i == first) {
+			error = "missing type or file name";
+			return null;
+		}
+		return intern(bytes, first, i);
+	}
+
+	/**
+	 * Helper method that returns the String for bytes[from..to-1], making it
+	 * only the first time those bytes are seen
+	 */
+	private String intern(byte[] bytes, int from, int to) {
+		int hash = 0;
+		for (int i = from; i < to; ++i) {
+			hash = 31 * hash + bytes[i];
+		}
+		int mask = names.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (names[slot] != null) {
+			byte[] name = names[slot];
+			if (name.length == to - from && equals(name, bytes, from)) {
+				return strings[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		byte[] name = Arrays.copyOfRange(bytes, from, to);
+		String s = new String(name, StandardCharsets.UTF_8);
+		names[slot] = name;
+		strings[slot] = s;
+		if (++numNames > names.length / 2) {
+			grow();
+		}
+		return s;
+	}
+
+	/**
+	 * Helper method that doubles the table of names
+	 */
+	private void grow() {
+		byte[][] oldNames = names;
+		String[] oldStrings = strings;
+		names = new byte[2 * oldNames.length][];
+		strings = new String[names.length];
+		int mask = names.length - 1;
+		for (int j = 0; j < oldNames.length; ++j) {
+			byte[] name = oldNames[j];
+			if (name == null) {
+				continue;
+			}
+			int hash = 0;
+			for (byte b : name) {
+				hash = 31 * hash + b;
+			}
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (names[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			names[slot] = name;
+			strings[slot] = oldStrings[j];
+		}
+	}
+
+	/**
+	 * Helper method that returns true if name equals the bytes from the given position on
+	 */
+	private static boolean equals(byte[] name, byte[] bytes, int from) {
+		for (int i = 0; i < name.length; ++i) {
+			if (name[i] != bytes[from + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Helper method that moves start past blanks and returns it
+	 */
+	private int skipBlanks(byte[] bytes, int to) {
+		while (start < to && isBlank(bytes[start])) {
+			++start;
+		}
+		return start;
+	}
+
+	/**
+	 * Helper method that returns true for spaces, tabs and carriage returns
+	 */
+	private static boolean isBlank(byte b) {
+		return b == ' ' || b == '\t' || b == '\r';
+	}
+}
@@ -0,0 +1,281 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * This class holds everything figures drawn from the same image have in
+ * common: their size, their pixels, their collision mask and runs, and the
+ * sprites used to draw and erase them. It is built once per distinct image
+ * (see ShapeCache) and never changes afterwards, so any number of figures,
+ * on any number of threads, can share it; only the id, type and offset of a
+ * figure are its own. A figure that gets a pixel added copies the shape first.
+ * The pixels, mask and runs are only built when a figure first needs them,
+ * so shapes whose figures never meet another figure never build them.
+ */
+public final class ShapeAsset {
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final int width;
+	private final int height;
+	private final int numPixels; // Opaque pixels
+	private volatile GraphicalFigure prototype; // Frozen figure whose pixels, mask and runs are shared, null until needed
+	private int[] raster; // Sprite pixels the prototype is built from, null once it is built or for bundles
+	private final int threshold;
+	private long[] keys; // Pixels and mask the prototype is built from, for shapes read from a bundle
+	private int[] colors;
+	private long[] mask;
+	private final BufferedImage image; // Sprite drawing the figure
+	private final BufferedImage erased; // Sprite erasing the figure
+	private final String digest; // Hash of the content of the image file
+
+	/**
+	 * A constructor for the shape of the given image. Only the sprites are
+	 * made now; the pixels, mask and runs are built the first time a figure
+	 * of the shape needs them.
+	 * @param argb
+	 * 		the pixels of the image, row by row; they are changed to build the sprites
+	 * 		and kept until the pixels are built
+	 * @param width
+	 * 		width of the image
+	 * @param height
+	 * 		height of the image
+	 * @param threshold
+	 * 		pixels whose red, green and blue are all at least threshold are transparent
+	 * @param background
+	 * 		colour the erasing sprite paints the opaque pixels with
+	 * @param digest
+	 * 		hash of the content of the image file
+	 */
+	ShapeAsset(int[] argb, int width, int height, int threshold, int background, String digest) {
+		this.width = width;
+		this.height = height;
+		this.threshold = threshold;
+		this.digest = digest;
+
+		//Only the alpha of transparent pixels changes, so the raster still gives the same pixels to fromRaster
+		int opaque = 0;
+		for (int i = 0; i < argb.length; ++i) {
+			if (BinarySearchTree.isTransparent(argb[i], threshold)) {
+				argb[i] = argb[i] & 0x00ffffff;
+			}
+			else {
+				++opaque;
+			}
+		}
+		this.numPixels = opaque;
+		this.raster = argb;
+		this.image = sprite(argb, width, height);
+		this.erased = sprite(erasing(argb, background), width, height);
+	}
+
+	/**
+	 * A constructor for a shape read from a scene bundle, whose pixels are
+	 * already sorted and whose sprite is already made transparent. The keys
+	 * and the mask are checked now, so a damaged bundle is refused when it is
+	 * opened; the arrays are kept until a figure of the shape needs its pixels.
+	 * @param width
+	 * 		width of the image
+	 * @param height
+	 * 		height of the image
+	 * @param keys
+	 * 		the packed keys of the opaque pixels, in increasing order
+	 * @param colors
+	 * 		the colour of each opaque pixel
+	 * @param n
+	 * 		the number of opaque pixels
+	 * @param mask
+	 * 		the words of the collision mask, row by row
+	 * @param argb
+	 * 		the pixels of the drawing sprite, row by row, with alpha 0 where transparent
+	 * @param background
+	 * 		colour the erasing sprite paints the opaque pixels with
+	 * @param digest
+	 * 		hash of the content of the image file
+	 * @throws IllegalArgumentException
+	 * 		if the arrays do not match the size of the image, a key is outside
+	 * 		the image or not larger than the one before it, or the mask does not
+	 * 		have exactly the bits of the keys
+	 */
+	ShapeAsset(int width, int height, long[] keys, int[] colors, int n, long[] mask, int[] argb, int background,
+			String digest) {
+		if (mask.length != ((width + 63) >>> 6) * height || keys.length < n || colors.length < n) {
+			throw new IllegalArgumentException("Shape arrays do not match a " + width + "x" + height + " image");
+		}
+		for (int i = 0; i < n; ++i) {
+			int x = Location.xOf(keys[i]);
+			int y = Location.yOf(keys[i]);
+			if (x < 0 || x >= width || y < 0 || y >= height) {
+				throw new IllegalArgumentException("Pixel (" + x + "," + y + ") is outside the figure");
+			}
+			if (i > 0 && keys[i] <= keys[i - 1]) {
+				throw new IllegalArgumentException("Pixel (" + x + "," + y + ") is out of order");
+			}
+			if ((mask[y * ((width + 63) >>> 6) + (x >>> 6)] & (1L << x)) == 0) {
+				throw new IllegalArgumentException("Pixel (" + x + "," + y + ") is not in the mask");
+			}
+		}
+		long bits = 0;
+		for (long word : mask) {
+			bits += Long.bitCount(word);
+		}
+		if (bits != n) {
+			throw new IllegalArgumentException("Mask has " + bits + " pixels, expected " + n);
+		}
+		this.width = width;
+		this.height = height;
+		this.numPixels = n;
+		this.threshold = 0;
+		this.keys = keys;
+		this.colors = colors;
+		this.mask = mask;
+		this.digest = digest;
+		this.image = sprite(argb, width, height);
+		this.erased = sprite(erasing(argb, background), width, height);
+	}
+
+	/**
+	 * Returns a new figure with this shape
+	 * @param id
+	 * 		id of the figure
+	 * @param type
+	 * 		type of the figure
+	 * @param pos
+	 * 		offset of the figure
+	 * @return
+	 * 		the figure
+	 */
+	public GraphicalFigure newFigure(int id, String type, Location pos) {
+		return new GraphicalFigure(id, type, pos, this);
+	}
+
+	/**
+	 * Returns the width of the shape
+	 * @return
+	 * 		width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the height of the shape
+	 * @return
+	 * 		height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the number of opaque pixels of the shape
+	 * @return
+	 * 		number of pixels
+	 */
+	public int getNumPixels() {
+		return numPixels;
+	}
+
+	/**
+	 * Returns the sprite drawing the shape, which must not be drawn on
+	 * @return
+	 * 		the sprite
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Returns the sprite erasing the shape, which must not be drawn on
+	 * @return
+	 * 		the sprite
+	 */
+	public BufferedImage getErased() {
+		return erased;
+	}
+
+	/**
+	 * Returns the hash of the content of the image file of the shape
+	 * @return
+	 * 		the hash, in hexadecimal
+	 */
+	public String getDigest() {
+		return digest;
+	}
+
+	/**
+	 * Helper method that returns the pixels of the erasing sprite, which paints
+	 * the background colour where the drawing sprite is opaque
+	 * @param argb
+	 * 		the pixels of the drawing sprite, with alpha 0 where transparent
+	 * @param background
+	 * 		the background colour
+	 * @return
+	 * 		the pixels of the erasing sprite
+	 */
+	private static int[] erasing(int[] argb, int background) {
+		int[] erase = new int[argb.length];
+		for (int i = 0; i < argb.length; ++i) {
+			erase[i] = (argb[i] & 0xff000000) == 0 ? background & 0x00ffffff : background | 0xff000000;
+		}
+		return erase;
+	}
+
+	/**
+	 * Helper method that returns a sprite with the given pixels
+	 * @param argb
+	 * 		the pixels, row by row
+	 * @param width
+	 * 		width of the sprite
+	 * @param height
+	 * 		height of the sprite
+	 * @return
+	 * 		the sprite
+	 */
+	private static BufferedImage sprite(int[] argb, int width, int height) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+		image.setRGB(0, 0, width, height, argb, 0, width);
+		return image;
+	}
+
+	/**
+	 * Returns true once the pixels, mask and runs of the shape are built
+	 * @return
+	 * 		true if a figure of the shape has needed its pixels
+	 */
+	public boolean isMaterialized() {
+		return prototype != null;
+	}
+
+	/**
+	 * Returns the frozen figure whose pixels, mask and runs the figures of this
+	 * shape share, building it the first time. Threads asking at the same time
+	 * all get the same figure, built once.
+	 * @return
+	 * 		the figure, which must not be changed
+	 */
+	GraphicalFigure getPrototype() {
+		GraphicalFigure built = prototype;
+		if (built != null) {
+			return built;
+		}
+		synchronized (this) {
+			if (prototype == null) {
+				if (raster != null) {
+					built = new GraphicalFigure(-1, width, height, "shape", new Location(0, 0),
+							BinarySearchTree.fromRaster(raster, width, height, threshold));
+					built.freeze();
+				}
+				else {
+					built = new GraphicalFigure(-1, width, height, "shape", new Location(0, 0), keys, colors,
+							numPixels, new CollisionMask(width, height, mask));
+				}
+				prototype = built;
+				raster = null;
+				keys = null;
+				colors = null;
+				mask = null;
+			}
+			return prototype;
+		}
+	}
+}
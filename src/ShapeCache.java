@@ -0,0 +1,160 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+import javax.imageio.ImageIO;
+
+/**
+ * This class loads the shapes of image files, decoding each distinct image
+ * once. Shapes are found by file, so loading a file again costs one map
+ * lookup, and by the SHA-256 hash of the content of the file, so copies of an
+ * image under other names share its shape too. A file whose size or time of
+ * last modification changes is read and hashed again.
+ *
+ * All figures loaded from the same image share one ShapeAsset, so memory and
+ * decoding time grow with the number of distinct images, not the number of
+ * figures. All methods can be called from several threads; threads loading
+ * different images decode them at the same time.
+ */
+public final class ShapeCache {
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final int threshold; // Pixels whose red, green and blue are all at least threshold are transparent
+	private final int background; // Colour of the erasing sprites
+	private final HashMap<String, ShapeAsset> byFile = new HashMap<String, ShapeAsset>();
+	private final HashMap<String, ShapeAsset> byContent = new HashMap<String, ShapeAsset>();
+	private long decoded; // Images decoded
+	private long reused; // Loads answered with a shape already decoded
+
+	/**
+	 * A constructor for an empty cache
+	 * @param threshold
+	 * 		pixels whose red, green and blue are all at least threshold are transparent
+	 * @param background
+	 * 		colour the erasing sprites paint the opaque pixels with
+	 */
+	public ShapeCache(int threshold, int background) {
+		this.threshold = threshold;
+		this.background = background;
+	}
+
+	/**
+	 * Returns the shape of the given image file, decoding it if no file with
+	 * the same content was loaded before
+	 * @param file
+	 * 		the image file, in a format ImageIO reads
+	 * @return
+	 * 		the shape
+	 * @throws IOException
+	 * 		if the file cannot be read or is not an image
+	 */
+	public ShapeAsset load(File file) throws IOException {
+		String fileKey = file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified();
+		synchronized (this) {
+			ShapeAsset shape = byFile.get(fileKey);
+			if (shape != null) {
+				++reused;
+				return shape;
+			}
+		}
+
+		//Files are read, hashed and decoded without holding the lock, so threads load different images at once
+		byte[] content = Files.readAllBytes(file.toPath());
+		String digest = digest(content);
+		synchronized (this) {
+			ShapeAsset shape = byContent.get(digest);
+			if (shape != null) {
+				++reused;
+				byFile.put(fileKey, shape);
+				return shape;
+			}
+		}
+		BufferedImage im = ImageIO.read(new ByteArrayInputStream(content));
+		if (im == null) {
+			throw new IOException("Not an image: " + file);
+		}
+		int width = im.getWidth();
+		int height = im.getHeight();
+		int[] argb = im.getRGB(0, 0, width, height, null, 0, width);
+		ShapeAsset built = new ShapeAsset(argb, width, height, threshold, background, digest);
+
+		//Threads that decoded the same image at once all return the shape stored first
+		synchronized (this) {
+			ShapeAsset shape = byContent.get(digest);
+			if (shape == null) {
+				shape = built;
+				byContent.put(digest, shape);
+				++decoded;
+			}
+			else {
+				++reused;
+			}
+			byFile.put(fileKey, shape);
+			return shape;
+		}
+	}
+
+	/**
+	 * Returns the number of distinct shapes loaded
+	 * @return
+	 * 		number of shapes
+	 */
+	public synchronized int size() {
+		return byContent.size();
+	}
+
+	/**
+	 * Returns the number of images decoded
+	 * @return
+	 * 		number of images decoded
+	 */
+	public synchronized long getDecoded() {
+		return decoded;
+	}
+
+	/**
+	 * Returns the number of loads that found the shape already decoded
+	 * @return
+	 * 		number of loads reused
+	 */
+	public synchronized long getReused() {
+		return reused;
+	}
+
+	/**
+	 * Forgets every shape and sets the counters back to 0. Figures keep the
+	 * shapes they have.
+	 */
+	public synchronized void clear() {
+		byFile.clear();
+		byContent.clear();
+		decoded = 0;
+		reused = 0;
+	}
+
+	/**
+	 * Helper method that returns the SHA-256 hash of the given bytes in hexadecimal
+	 * @param content
+	 * 		the bytes
+	 * @return
+	 * 		the hash
+	 */
+	static String digest(byte[] content) {
+		try {
+			StringBuilder hex = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+}
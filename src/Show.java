@@ -1,4 +1,5 @@
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class Show {
 
@@ -10,6 +11,7 @@ public class Show {
 	private static final int SUCCESS = -2; // Graphical object was successfully moved
 	private static final int HIT_BORDER = -1; // Graphical object could not move as it
 	// hit the window's border
+	private static Random generator; // Seeded from the command line to replay a game
 
 	/* ====================================== */
 	public static void main(String args[]) {
@@ -26,12 +28,17 @@ public class Show {
 		int[] progFig; // Graphical objects controlled by computer
 		int[] dir; // Direction in which computer graphical objects move
 
-		Random generator = new Random();
 		int code;
 		int step = 4; // Length in pixels of each movement of a graphical object
 		MoveFigure mover;
+		TickMover ticker = null; // Moves all computer objects at once in tick mode
 
-		if (args.length == 3)
+		// Optional arguments after width and height: "tick" to move the computer
+		// objects in parallel ticks, then a seed to make the game reproducible
+		boolean tick = args.length >= 4 && args[3].equals("tick");
+		generator = args.length >= 5 ? new Random(Long.parseLong(args[4])) : new Random();
+
+		if (args.length >= 3)
 			// Arguments include input file and window width and height
 			try {
 				window = new Gui(Integer.parseInt(args[1]), Integer.parseInt(args[2]), args[0]);
@@ -41,6 +48,8 @@ public class Show {
 		else
 			window = new Gui(500, 500, args[0]); // Set up drawing environment
 		mover = new MoveFigure(window); // and read input graphical objects
+		if (tick)
+			ticker = new TickMover(ForkJoinPool.commonPool(), window.displayWidth(), window.displayHeight());
 		figures = window.getFigures();
 		numberFigures = window.getNumFigures();
 		progFig = new int[numberFigures];
@@ -60,6 +69,12 @@ public class Show {
 
 		// Move objects randomly
 		while (true) {
+			if (ticker != null) {
+				tick(ticker, numberFigures, progFig, ncomp, dir, step);
+				if (window.Wait())
+					++step;
+				continue;
+			}
 			for (int i = 0; i < ncomp; ++i) {
 				if (dir[i] == left) {
 					if ((code = mover.moveLeft(figures, numberFigures, progFig[i], step)) != SUCCESS)
@@ -81,14 +96,45 @@ public class Show {
 
 	}
 
+	/* ======================================================= */
+	private static void tick(TickMover ticker, int numberFigures, int[] progFig, int ncomp, int[] dir, int step) {
+		/* ======================================================= */
+		// Move every graphical object controlled by the computer one step in its
+		// direction at the same time, then redraw those that moved
+
+		final int[][] moves = {{-step, 0}, {step, 0}, {0, -step}, {0, step}}; // left, right, up, down
+		int[] dx = new int[ncomp];
+		int[] dy = new int[ncomp];
+		Location[] before = new Location[ncomp];
+
+		for (int i = 0; i < ncomp; ++i) {
+			dx[i] = moves[dir[i]][0];
+			dy[i] = moves[dir[i]][1];
+			before[i] = figures[progFig[i]].getOffset();
+		}
+		int[] codes = ticker.tick(figures, numberFigures, progFig, ncomp, dx, dy, window.getBroadPhase());
+
+		// Erase every object that moved before drawing any, so no new image is erased
+		for (int i = 0; i < ncomp; ++i)
+			if (codes[i] == SUCCESS) {
+				Location after = figures[progFig[i]].getOffset();
+				figures[progFig[i]].setOffset(before[i]);
+				window.eraseFigure(figures[progFig[i]]);
+				figures[progFig[i]].setOffset(after);
+			}
+		for (int i = 0; i < ncomp; ++i)
+			if (codes[i] == SUCCESS)
+				window.drawFigure(figures[progFig[i]]);
+			else
+				dir[i] = resolveCollision(codes[i], dir[i]);
+	}
+
 	/* ======================================================= */
 	private static int resolveCollision(int code, int dir) {
 		/* ======================================================= */
 		// Determine direction in which graphical object will next move. Delete
 		// graphical objects that have been destroyed.
 
-		Random generator = new Random();
-
 		if ((code != HIT_BORDER) && (figures[code].getType().equals(MOBILE_FIGURE))) {
 			/* Kill figure */
 			try {
@@ -100,6 +146,8 @@ public class Show {
 					Thread.sleep(200);
 				}
 
+				if (window.getBroadPhase() != null)
+					window.getBroadPhase().remove(figures[code]);
 				figures[code].setOffset(new Location(-1000, -1000));
 				figures[code].setType(FIGURE_KILLED);
 			} catch (Exception e) {
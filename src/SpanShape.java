@@ -0,0 +1,166 @@
+/**
+ * This class stores the shape of a figure as runs of opaque pixels: for every
+ * row, the sorted runs [x0,x1) of consecutive pixels the figure has. Solid
+ * sprites have one or two runs per row however wide they are, so comparing
+ * two rows costs a merge of their runs, which grows with the number of edges
+ * of the shapes and not with their area.
+ *
+ * The runs of all rows are stored in one array as pairs x0, x1; the runs of
+ * row y are the pairs from rowStart[y] to rowStart[y + 1].
+ */
+public final class SpanShape {
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final int[] rowStart;
+	private final int[] runs;
+
+	/**
+	 * A constructor for the given runs
+	 * @param rowStart
+	 * 		index in runs of the first run of each row, plus the length of runs
+	 * @param runs
+	 * 		the runs of all rows as pairs x0, x1
+	 */
+	SpanShape(int[] rowStart, int[] runs) {
+		this.rowStart = rowStart;
+		this.runs = runs;
+	}
+
+	/**
+	 * Returns the number of rows of the shape
+	 * @return
+	 * 		number of rows
+	 */
+	public int getHeight() {
+		return rowStart.length - 1;
+	}
+
+	/**
+	 * Returns the number of runs in all rows
+	 * @return
+	 * 		number of runs
+	 */
+	public int getRunCount() {
+		return runs.length / 2;
+	}
+
+	/**
+	 * Returns the number of runs in row y, 0 if the shape has no such row
+	 * @param y
+	 * 		the row
+	 * @return
+	 * 		number of runs
+	 */
+	public int getRunCount(int y) {
+		if (y < 0 || y >= getHeight()) {
+			return 0;
+		}
+		return (rowStart[y + 1] - rowStart[y]) / 2;
+	}
+
+	/**
+	 * Returns true if row y of this shape and row otherY of the given shape
+	 * have a pixel in common when the pixel x of this row is on top of the
+	 * pixel x+dx of the other
+	 * @param y
+	 * 		row of this shape
+	 * @param other
+	 * 		the other shape
+	 * @param otherY
+	 * 		row of the other shape
+	 * @param dx
+	 * 		x distance from this shape to the other one
+	 * @return
+	 * 		true if the rows overlap
+	 */
+	public boolean rowIntersects(int y, SpanShape other, int otherY, int dx) {
+		if (getRunCount(y) == 0 || other.getRunCount(otherY) == 0) {
+			return false;
+		}
+		int i = rowStart[y];
+		int end = rowStart[y + 1];
+		int j = other.rowStart[otherY];
+		int otherEnd = other.rowStart[otherY + 1];
+
+		//Merge the two sorted lists of runs, moving past the run that ends first
+		while (i < end && j < otherEnd) {
+			int from = Math.max(runs[i], other.runs[j] - dx);
+			int to = Math.min(runs[i + 1], other.runs[j + 1] - dx);
+			if (from < to) {
+				return true;
+			}
+			if (runs[i + 1] < other.runs[j + 1] - dx) {
+				i += 2;
+			}
+			else {
+				j += 2;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if row y of this shape and row otherY of the given mask
+	 * have a pixel in common when the pixel x of this row is on top of the
+	 * pixel x+dx of the mask. Only the columns fromX to toX of this row are
+	 * compared.
+	 * @param y
+	 * 		row of this shape
+	 * @param other
+	 * 		the mask
+	 * @param otherY
+	 * 		row of the mask
+	 * @param dx
+	 * 		x distance from this shape to the mask
+	 * @param fromX
+	 * 		smallest x coordinate to compare
+	 * @param toX
+	 * 		largest x coordinate to compare
+	 * @return
+	 * 		true if the rows overlap
+	 */
+	public boolean rowIntersects(int y, CollisionMask other, int otherY, int dx, int fromX, int toX) {
+		if (getRunCount(y) == 0) {
+			return false;
+		}
+		for (int i = rowStart[y]; i < rowStart[y + 1]; i += 2) {
+			int from = Math.max(runs[i], fromX);
+			int to = Math.min(runs[i + 1] - 1, toX);
+			if (from <= to && other.anySet(otherY, from + dx, to + dx)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Visits the pixels of this shape inside a rectangle, row by row. Runs
+	 * store no colours, so the visitor is given colour 0.
+	 * @param fromX
+	 * 		smallest x coordinate of the rectangle
+	 * @param fromY
+	 * 		smallest y coordinate of the rectangle
+	 * @param toX
+	 * 		largest x coordinate of the rectangle
+	 * @param toY
+	 * 		largest y coordinate of the rectangle
+	 * @param consumer
+	 * 		the visitor, which returns false to stop
+	 * @return
+	 * 		true if every pixel was visited, false if the visitor stopped
+	 */
+	public boolean rangeQuery(int fromX, int fromY, int toX, int toY, PixelConsumer consumer) {
+		for (int y = Math.max(fromY, 0); y <= Math.min(toY, getHeight() - 1); ++y) {
+			for (int i = rowStart[y]; i < rowStart[y + 1]; i += 2) {
+				for (int x = Math.max(runs[i], fromX); x < runs[i + 1] && x <= toX; ++x) {
+					if (!consumer.accept(x, y, 0)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,289 @@
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class is a broad phase that hashes the rectangles of the figures into a
+ * uniform grid of square cells. A figure is listed in every cell its rectangle
+ * touches, so a query only looks at the figures listed in the cells the query
+ * rectangle touches. Only the cells that have figures are stored, in a hash
+ * table keyed by the packed cell coordinates (see Location.pack), so figures
+ * can be anywhere, including far off screen.
+ *
+ * Moving a figure by a few pixels usually leaves it in the same cells, which
+ * makes update constant time. The grid works best when the cells are about
+ * the size of the figures.
+ */
+public class SpatialGrid implements BroadPhase {
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final int cellSize;
+	private final HashMap<Long, Cell> cells = new HashMap<Long, Cell>();
+	private int[] rects = new int[0]; // x, y, width, height of each figure by id
+	private int[] spans = new int[0]; // First and last cell column and row of each figure by id
+	private boolean[] present = new boolean[0];
+
+	/**
+	 * A constructor for an empty grid
+	 * @param cellSize
+	 * 		width and height of the cells in pixels
+	 */
+	public SpatialGrid(int cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size must be positive");
+		}
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * Adds the given figure at its current offset
+	 * @param fig
+	 * 		the figure
+	 */
+	public void insert(GraphicalFigure fig) {
+		int id = fig.getId();
+		if (id >= present.length) {
+			grow(id);
+		}
+		if (present[id]) {
+			update(fig);
+			return;
+		}
+		present[id] = true;
+		store(fig);
+		addToCells(id);
+	}
+
+	/**
+	 * Moves the given figure to its current offset
+	 * @param fig
+	 * 		a figure in the grid
+	 */
+	public void update(GraphicalFigure fig) {
+		int id = fig.getId();
+		if (id >= present.length || !present[id]) {
+			return;
+		}
+		int first = 4 * id;
+		int left = spans[first], top = spans[first + 1], right = spans[first + 2], bottom = spans[first + 3];
+
+		//Small moves usually stay in the same cells
+		store(fig);
+		if (left != spans[first] || top != spans[first + 1] || right != spans[first + 2] || bottom != spans[first + 3]) {
+			removeFromCells(id, left, top, right, bottom);
+			addToCells(id);
+		}
+	}
+
+	/**
+	 * Removes the given figure, if it is in the grid
+	 * @param fig
+	 * 		the figure
+	 */
+	public void remove(GraphicalFigure fig) {
+		int id = fig.getId();
+		if (id < present.length && present[id]) {
+			present[id] = false;
+			removeFromCells(id, spans[4 * id], spans[4 * id + 1], spans[4 * id + 2], spans[4 * id + 3]);
+		}
+	}
+
+	/**
+	 * Returns the ids of the figures whose rectangles overlap the given one
+	 * @param x
+	 * 		x coordinate of the upper left corner of the rectangle
+	 * @param y
+	 * 		y coordinate of the upper left corner of the rectangle
+	 * @param width
+	 * 		width of the rectangle
+	 * @param height
+	 * 		height of the rectangle
+	 * @return
+	 * 		the ids, in increasing order
+	 */
+	public int[] query(int x, int y, int width, int height) {
+		int[] found = new int[8];
+		int n = 0;
+
+		for (int row = cell(y); row <= cell(y + Math.max(height, 1) - 1); ++row) {
+			for (int column = cell(x); column <= cell(x + Math.max(width, 1) - 1); ++column) {
+				Cell cell = cells.get(Location.pack(column, row));
+				if (cell == null) {
+					continue;
+				}
+				for (int i = 0; i < cell.size; ++i) {
+					int id = cell.ids[i];
+					if (overlaps(id, x, y, width, height)) {
+						if (n == found.length) {
+							found = Arrays.copyOf(found, 2 * n);
+						}
+						found[n++] = id;
+					}
+				}
+			}
+		}
+
+		//A figure listed in several cells is found once per cell
+		Arrays.sort(found, 0, n);
+		int unique = 0;
+		for (int i = 0; i < n; ++i) {
+			if (unique == 0 || found[i] != found[unique - 1]) {
+				found[unique++] = found[i];
+			}
+		}
+		return Arrays.copyOf(found, unique);
+	}
+
+	/**
+	 * Returns the ids of the other figures whose rectangles overlap the
+	 * rectangle of the given figure, as it was last inserted or updated
+	 * @param fig
+	 * 		a figure in the grid
+	 * @return
+	 * 		the ids, in increasing order
+	 */
+	public int[] candidates(GraphicalFigure fig) {
+		int id = fig.getId();
+		if (id >= present.length || !present[id]) {
+			return new int[0];
+		}
+		int first = 4 * id;
+		int[] found = query(rects[first], rects[first + 1], rects[first + 2], rects[first + 3]);
+		int self = Arrays.binarySearch(found, id);
+		if (self < 0) {
+			return found; // An empty figure overlaps nothing, not even itself
+		}
+		int[] others = new int[found.length - 1];
+		System.arraycopy(found, 0, others, 0, self);
+		System.arraycopy(found, self + 1, others, self, others.length - self);
+		return others;
+	}
+
+	/**
+	 * Returns the number of cells that have figures
+	 * @return
+	 * 		number of cells
+	 */
+	public int getCellCount() {
+		return cells.size();
+	}
+
+	/**
+	 * Helper method that returns the column or row of the cell containing the
+	 * given coordinate
+	 * @param coordinate
+	 * 		x or y coordinate
+	 * @return
+	 * 		column or row
+	 */
+	private int cell(int coordinate) {
+		return Math.floorDiv(coordinate, cellSize);
+	}
+
+	/**
+	 * Helper method that returns true if the stored rectangle of the figure
+	 * overlaps the given one
+	 * @param id
+	 * 		id of the figure
+	 * @return
+	 * 		true if the rectangles overlap
+	 */
+	private boolean overlaps(int id, int x, int y, int width, int height) {
+		int first = 4 * id;
+		return rects[first] < x + width && x < rects[first] + rects[first + 2]
+				&& rects[first + 1] < y + height && y < rects[first + 1] + rects[first + 3];
+	}
+
+	/**
+	 * Helper method that stores the rectangle of the figure and the cells it touches
+	 * @param fig
+	 * 		the figure
+	 */
+	private void store(GraphicalFigure fig) {
+		int first = 4 * fig.getId();
+		Location pos = fig.getOffset();
+		rects[first] = pos.xCoord();
+		rects[first + 1] = pos.yCoord();
+		rects[first + 2] = fig.getWidth();
+		rects[first + 3] = fig.getHeight();
+		spans[first] = cell(pos.xCoord());
+		spans[first + 1] = cell(pos.yCoord());
+		spans[first + 2] = cell(pos.xCoord() + Math.max(fig.getWidth(), 1) - 1);
+		spans[first + 3] = cell(pos.yCoord() + Math.max(fig.getHeight(), 1) - 1);
+	}
+
+	/**
+	 * Helper method that lists the figure in the cells stored for it
+	 * @param id
+	 * 		id of the figure
+	 */
+	private void addToCells(int id) {
+		for (int row = spans[4 * id + 1]; row <= spans[4 * id + 3]; ++row) {
+			for (int column = spans[4 * id]; column <= spans[4 * id + 2]; ++column) {
+				Long key = Location.pack(column, row);
+				Cell cell = cells.get(key);
+				if (cell == null) {
+					cell = new Cell();
+					cells.put(key, cell);
+				}
+				cell.add(id);
+			}
+		}
+	}
+
+	/**
+	 * Helper method that takes the figure out of the given cells, dropping
+	 * the cells left empty
+	 * @param id
+	 * 		id of the figure
+	 */
+	private void removeFromCells(int id, int left, int top, int right, int bottom) {
+		for (int row = top; row <= bottom; ++row) {
+			for (int column = left; column <= right; ++column) {
+				Long key = Location.pack(column, row);
+				Cell cell = cells.get(key);
+				if (cell != null && cell.remove(id) && cell.size == 0) {
+					cells.remove(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Helper method that makes room for figures with ids up to the given one
+	 * @param id
+	 * 		the largest id
+	 */
+	private void grow(int id) {
+		int length = Math.max(id + 1, 2 * present.length);
+		rects = Arrays.copyOf(rects, 4 * length);
+		spans = Arrays.copyOf(spans, 4 * length);
+		present = Arrays.copyOf(present, length);
+	}
+
+	/**
+	 * Ids of the figures listed in a cell, in no particular order
+	 */
+	private static final class Cell {
+		private int[] ids = new int[4];
+		private int size;
+
+		void add(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+			}
+			ids[size++] = id;
+		}
+
+		boolean remove(int id) {
+			for (int i = 0; i < size; ++i) {
+				if (ids[i] == id) {
+					ids[i] = ids[--size];
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
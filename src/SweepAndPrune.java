@@ -0,0 +1,503 @@
+import java.util.Arrays;
+
+/**
+ * This class is a broad phase that keeps the edges of the rectangles of the
+ * figures sorted along x and along y, and with them the list of pairs of
+ * figures whose rectangles overlap. When a figure moves a few pixels its edges
+ * only pass the edges of its neighbours, so an insertion sort puts them back
+ * in order in almost constant time, and every edge passed tells whether a
+ * pair starts or stops overlapping along that axis.
+ *
+ * Rectangles are half open: a figure at x of width w covers x to x + w - 1, so
+ * figures that only touch do not overlap. The edges are sorted the first time
+ * they are needed after figures are inserted, and the pairs found with one
+ * sweep, so loading a scene costs O(n log n).
+ */
+public class SweepAndPrune implements BroadPhase {
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final Axis xAxis = new Axis();
+	private final Axis yAxis = new Axis();
+	private int[] rects = new int[0]; // x, y, width, height of each figure by id
+	private boolean[] present = new boolean[0];
+	private int[][] partners = new int[0][]; // Ids of the figures overlapping each figure; the count is in slot 0
+	private int maxWidth; // Width of the widest figure inserted, for queries
+	private volatile boolean sorted = true; // False after insertions, until the edges are sorted again
+
+	/**
+	 * Adds the given figure at its current offset
+	 * @param fig
+	 * 		the figure
+	 */
+	public void insert(GraphicalFigure fig) {
+		int id = fig.getId();
+		if (id >= present.length) {
+			grow(id);
+		}
+		if (present[id]) {
+			update(fig);
+			return;
+		}
+		present[id] = true;
+		store(fig);
+		maxWidth = Math.max(maxWidth, rects[4 * id + 2]);
+
+		//Edges are appended, and sorted when next needed
+		xAxis.append(2 * id, key(rects[4 * id], false));
+		xAxis.append(2 * id + 1, key(rects[4 * id] + rects[4 * id + 2], true));
+		yAxis.append(2 * id, key(rects[4 * id + 1], false));
+		yAxis.append(2 * id + 1, key(rects[4 * id + 1] + rects[4 * id + 3], true));
+		sorted = false;
+	}
+
+	/**
+	 * Moves the given figure to its current offset, updating the pairs of
+	 * figures that overlap
+	 * @param fig
+	 * 		a figure in the index
+	 */
+	public void update(GraphicalFigure fig) {
+		int id = fig.getId();
+		if (id >= present.length || !present[id]) {
+			return;
+		}
+		store(fig);
+		maxWidth = Math.max(maxWidth, rects[4 * id + 2]);
+		int first = 4 * id;
+		long left = key(rects[first], false), right = key(rects[first] + rects[first + 2], true);
+		long top = key(rects[first + 1], false), bottom = key(rects[first + 1] + rects[first + 3], true);
+		if (!sorted) {
+			//The edges are sorted from scratch anyway
+			xAxis.keys[xAxis.position[2 * id]] = left;
+			xAxis.keys[xAxis.position[2 * id + 1]] = right;
+			yAxis.keys[yAxis.position[2 * id]] = top;
+			yAxis.keys[yAxis.position[2 * id + 1]] = bottom;
+			sort();
+			return;
+		}
+		move(xAxis, id, left, right);
+		move(yAxis, id, top, bottom);
+	}
+
+	/**
+	 * Removes the given figure, if it is in the index
+	 * @param fig
+	 * 		the figure
+	 */
+	public void remove(GraphicalFigure fig) {
+		int id = fig.getId();
+		if (id >= present.length || !present[id]) {
+			return;
+		}
+		present[id] = false;
+		xAxis.delete(2 * id);
+		xAxis.delete(2 * id + 1);
+		yAxis.delete(2 * id);
+		yAxis.delete(2 * id + 1);
+		for (int i = partners[id][0]; i > 0; --i) {
+			unlink(partners[id][i], id);
+		}
+		partners[id][0] = 0;
+	}
+
+	/**
+	 * Returns the ids of the figures whose rectangles overlap the given one
+	 * @param x
+	 * 		x coordinate of the upper left corner of the rectangle
+	 * @param y
+	 * 		y coordinate of the upper left corner of the rectangle
+	 * @param width
+	 * 		width of the rectangle
+	 * @param height
+	 * 		height of the rectangle
+	 * @return
+	 * 		the ids, in increasing order
+	 */
+	public int[] query(int x, int y, int width, int height) {
+		if (!sorted) {
+			sortOnce();
+		}
+		int[] found = new int[8];
+		int n = 0;
+
+		//Only figures whose left edge is less than the widest figure away can reach the rectangle
+		for (int i = xAxis.search(key(x - maxWidth, true)); i < xAxis.size && xAxis.keys[i] < key(x + width, true); ++i) {
+			int owner = xAxis.owners[i];
+			if ((owner & 1) == 0 && overlaps(owner >>> 1, x, y, width, height)) {
+				if (n == found.length) {
+					found = Arrays.copyOf(found, 2 * n);
+				}
+				found[n++] = owner >>> 1;
+			}
+		}
+		found = Arrays.copyOf(found, n);
+		Arrays.sort(found);
+		return found;
+	}
+
+	/**
+	 * Returns the ids of the figures whose rectangles overlap the rectangle of
+	 * the given figure, as it was last inserted or updated
+	 * @param fig
+	 * 		a figure in the index
+	 * @return
+	 * 		the ids, in increasing order
+	 */
+	public int[] candidates(GraphicalFigure fig) {
+		if (!sorted) {
+			sortOnce();
+		}
+		int id = fig.getId();
+		if (id >= present.length || !present[id]) {
+			return new int[0];
+		}
+		int[] found = Arrays.copyOfRange(partners[id], 1, partners[id][0] + 1);
+		Arrays.sort(found);
+		return found;
+	}
+
+	/**
+	 * Helper method that returns the sort key of an edge: edges are sorted by
+	 * coordinate, and right or bottom edges go before left or top edges at the
+	 * same coordinate, so rectangles that only touch are not paired
+	 * @param coordinate
+	 * 		coordinate of the edge
+	 * @param end
+	 * 		true for a right or bottom edge
+	 * @return
+	 * 		the key
+	 */
+	private static long key(int coordinate, boolean end) {
+		return 2L * coordinate + (end ? 0 : 1);
+	}
+
+	/**
+	 * Helper method that returns true if the stored rectangles of the two figures overlap
+	 * @param a
+	 * 		id of a figure
+	 * @param b
+	 * 		id of another figure
+	 * @return
+	 * 		true if the rectangles overlap
+	 */
+	private boolean overlaps(int a, int b) {
+		return overlaps(a, rects[4 * b], rects[4 * b + 1], rects[4 * b + 2], rects[4 * b + 3]);
+	}
+
+	/**
+	 * Helper method that returns true if the stored rectangle of the figure
+	 * overlaps the given one
+	 * @param id
+	 * 		id of the figure
+	 * @return
+	 * 		true if the rectangles overlap
+	 */
+	private boolean overlaps(int id, int x, int y, int width, int height) {
+		int first = 4 * id;
+		return rects[first] < x + width && x < rects[first] + rects[first + 2]
+				&& rects[first + 1] < y + height && y < rects[first + 1] + rects[first + 3];
+	}
+
+	/**
+	 * Helper method that moves the edges of a figure along one axis to their
+	 * new keys, pairing and unpairing the figure with the figures whose edges
+	 * it passes
+	 * @param axis
+	 * 		the axis
+	 * @param id
+	 * 		id of the figure
+	 * @param start
+	 * 		new key of its left or top edge
+	 * @param end
+	 * 		new key of its right or bottom edge
+	 */
+	private void move(Axis axis, int id, long start, long end) {
+
+		//Move the leading edge first, so the two edges of the figure never cross
+		if (start < axis.keys[axis.position[2 * id]]) {
+			slide(axis, 2 * id, start);
+			slide(axis, 2 * id + 1, end);
+		}
+		else {
+			slide(axis, 2 * id + 1, end);
+			slide(axis, 2 * id, start);
+		}
+	}
+
+	/**
+	 * Helper method that moves one edge to its new key by insertion sort
+	 * @param axis
+	 * 		the axis
+	 * @param owner
+	 * 		the edge: twice the id of its figure, plus one for a right or bottom edge
+	 * @param key
+	 * 		the new key of the edge
+	 */
+	private void slide(Axis axis, int owner, long key) {
+		int i = axis.position[owner];
+		int id = owner >>> 1;
+		boolean end = (owner & 1) == 1;
+		axis.keys[i] = key;
+
+		while (i > 0 && axis.keys[i - 1] > key) {
+			int other = axis.owners[i - 1];
+			if ((other >>> 1) != id) {
+				//A left edge passing a right edge to the left may start an overlap; a right edge passing a left edge ends one
+				if (!end && (other & 1) == 1) {
+					pairIfOverlapping(id, other >>> 1);
+				}
+				else if (end && (other & 1) == 0) {
+					unpair(id, other >>> 1);
+				}
+			}
+			axis.swap(i - 1, i);
+			--i;
+		}
+		while (i < axis.size - 1 && axis.keys[i + 1] < key) {
+			int other = axis.owners[i + 1];
+			if ((other >>> 1) != id) {
+				if (end && (other & 1) == 0) {
+					pairIfOverlapping(id, other >>> 1);
+				}
+				else if (!end && (other & 1) == 1) {
+					unpair(id, other >>> 1);
+				}
+			}
+			axis.swap(i, i + 1);
+			++i;
+		}
+	}
+
+	/**
+	 * Helper method that sorts the edges unless another thread querying the
+	 * index at the same time just did
+	 */
+	private synchronized void sortOnce() {
+		if (!sorted) {
+			sort();
+		}
+	}
+
+	/**
+	 * Helper method that sorts the edges of both axes and finds every pair of
+	 * overlapping figures with a sweep along x
+	 */
+	private void sort() {
+		xAxis.sort();
+		yAxis.sort();
+		for (int id = 0; id < present.length; ++id) {
+			if (partners[id] != null) {
+				partners[id][0] = 0;
+			}
+		}
+
+		//Figures whose left edge was passed and right edge not yet are active
+		int[] active = new int[16];
+		int[] slot = new int[present.length];
+		int count = 0;
+		for (int i = 0; i < xAxis.size; ++i) {
+			int owner = xAxis.owners[i];
+			int id = owner >>> 1;
+			if ((owner & 1) == 0) {
+				for (int j = 0; j < count; ++j) {
+					if (overlaps(id, active[j])) {
+						link(id, active[j]);
+						link(active[j], id);
+					}
+				}
+				if (count == active.length) {
+					active = Arrays.copyOf(active, 2 * count);
+				}
+				slot[id] = count;
+				active[count++] = id;
+			}
+			else {
+				int last = active[--count];
+				active[slot[id]] = last;
+				slot[last] = slot[id];
+			}
+		}
+		sorted = true;
+	}
+
+	/**
+	 * Helper method that pairs two figures if their rectangles overlap and
+	 * they are not paired yet
+	 * @param a
+	 * 		id of a figure
+	 * @param b
+	 * 		id of another figure
+	 */
+	private void pairIfOverlapping(int a, int b) {
+		if (overlaps(a, b) && !linked(a, b)) {
+			link(a, b);
+			link(b, a);
+		}
+	}
+
+	/**
+	 * Helper method that unpairs two figures, if they are paired
+	 * @param a
+	 * 		id of a figure
+	 * @param b
+	 * 		id of another figure
+	 */
+	private void unpair(int a, int b) {
+		if (unlink(a, b)) {
+			unlink(b, a);
+		}
+	}
+
+	/**
+	 * Helper method that returns true if b is in the list of partners of a
+	 */
+	private boolean linked(int a, int b) {
+		int[] list = partners[a];
+		for (int i = list[0]; i > 0; --i) {
+			if (list[i] == b) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Helper method that adds b to the list of partners of a
+	 */
+	private void link(int a, int b) {
+		int[] list = partners[a];
+		if (list[0] == list.length - 1) {
+			list = partners[a] = Arrays.copyOf(list, 2 * list.length);
+		}
+		list[++list[0]] = b;
+	}
+
+	/**
+	 * Helper method that removes b from the list of partners of a
+	 * @return
+	 * 		true if b was in the list
+	 */
+	private boolean unlink(int a, int b) {
+		int[] list = partners[a];
+		for (int i = list[0]; i > 0; --i) {
+			if (list[i] == b) {
+				list[i] = list[list[0]--];
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Helper method that stores the rectangle of the figure
+	 * @param fig
+	 * 		the figure
+	 */
+	private void store(GraphicalFigure fig) {
+		int first = 4 * fig.getId();
+		Location pos = fig.getOffset();
+		rects[first] = pos.xCoord();
+		rects[first + 1] = pos.yCoord();
+		rects[first + 2] = fig.getWidth();
+		rects[first + 3] = fig.getHeight();
+	}
+
+	/**
+	 * Helper method that makes room for figures with ids up to the given one
+	 * @param id
+	 * 		the largest id
+	 */
+	private void grow(int id) {
+		int length = Math.max(id + 1, 2 * present.length);
+		int old = present.length;
+		rects = Arrays.copyOf(rects, 4 * length);
+		present = Arrays.copyOf(present, length);
+		partners = Arrays.copyOf(partners, length);
+		for (int i = old; i < length; ++i) {
+			partners[i] = new int[4];
+		}
+		xAxis.grow(2 * length);
+		yAxis.grow(2 * length);
+	}
+
+	/**
+	 * Edges of the rectangles along one axis, sorted by key once sorted() has run
+	 */
+	private static final class Axis {
+		private long[] keys = new long[0];
+		private int[] owners = new int[0]; // Twice the id of the figure, plus one for a right or bottom edge
+		private int[] position = new int[0]; // Index of each edge in keys, by owner
+		private int size;
+
+		void grow(int edges) {
+			position = Arrays.copyOf(position, edges);
+		}
+
+		void append(int owner, long key) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, Math.max(16, 2 * size));
+				owners = Arrays.copyOf(owners, keys.length);
+			}
+			keys[size] = key;
+			owners[size] = owner;
+			position[owner] = size++;
+		}
+
+		void delete(int owner) {
+			int i = position[owner];
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(owners, i + 1, owners, i, size - i - 1);
+			--size;
+			for (int j = i; j < size; ++j) {
+				position[owners[j]] = j;
+			}
+		}
+
+		void swap(int i, int j) {
+			long key = keys[i];
+			keys[i] = keys[j];
+			keys[j] = key;
+			int owner = owners[i];
+			owners[i] = owners[j];
+			owners[j] = owner;
+			position[owners[i]] = i;
+			position[owners[j]] = j;
+		}
+
+		void sort() {
+			//Sort the indices of the edges by key, then reorder both arrays
+			Integer[] order = new Integer[size];
+			for (int i = 0; i < size; ++i) {
+				order[i] = i;
+			}
+			final long[] unsorted = keys;
+			Arrays.sort(order, (a, b) -> Long.compare(unsorted[a], unsorted[b]));
+			long[] sortedKeys = new long[keys.length];
+			int[] sortedOwners = new int[owners.length];
+			for (int i = 0; i < size; ++i) {
+				sortedKeys[i] = keys[order[i]];
+				sortedOwners[i] = owners[order[i]];
+				position[sortedOwners[i]] = i;
+			}
+			keys = sortedKeys;
+			owners = sortedOwners;
+		}
+
+		int search(long key) {
+			//First index whose key is not less than the given one
+			int low = 0, high = size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (keys[middle] < key) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+}
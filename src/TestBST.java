@@ -1,6 +1,7 @@
 import java.io.*;
 import javax.imageio.*;
 import java.awt.image.*;
+import java.util.*;
 
 public class TestBST {
 
@@ -241,6 +242,361 @@ public class TestBST {
 			System.out.println("Test 16 failed");
 		}
 
+		/* Tests with the balanced tree */
+		BalancedBinarySearchTree balanced = new BalancedBinarySearchTree();
+		int n = 100000;
+
+		try {
+			// Insert pixels in column order, which degenerates an unbalanced tree
+			for (int i = 0; i < n; ++i)
+				balanced.put(balanced.getRoot(),new Pixel(new Location(i / 100, i % 100),i));
+			boolean found = true;
+			for (int i = 0; i < n; ++i) {
+				res = balanced.get(balanced.getRoot(),new Location(i / 100, i % 100));
+				if (res == null || res.getColor() != i) found = false;
+			}
+			if (found && height(balanced.getRoot()) <= 2 * (Math.log(n + 1) / Math.log(2)) && blackHeight(balanced.getRoot()) > 0)
+				System.out.println("Test 17 passed");
+			else System.out.println("Test 17 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 17 failed");
+		}
+
+		try {
+			// Remove every other pixel and check the tree stays a valid red-black tree
+			for (int i = 0; i < n; i += 2)
+				balanced.remove(balanced.getRoot(),new Location(i / 100, i % 100));
+			res = balanced.successor(balanced.getRoot(),new Location(5, 1));
+			if (balanced.get(balanced.getRoot(),new Location(5, 2)) == null
+					&& res.getLocation().compareTo(new Location(5, 3)) == 0
+					&& balanced.smallest(balanced.getRoot()).getColor() == 1
+					&& blackHeight(balanced.getRoot()) > 0
+					&& height(balanced.getRoot()) <= 2 * (Math.log(n / 2 + 1) / Math.log(2)))
+				System.out.println("Test 18 passed");
+			else System.out.println("Test 18 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 18 failed");
+		}
+
+		try {
+			balanced.remove(balanced.getRoot(),new Location(0, 0));  // Delete inexistent data
+			System.out.println("Test 19 failed");
+		}
+		catch(InexistentKeyException e) {
+			System.out.println("Test 19 passed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 19 failed");
+		}
+
+		/* Tests with the packed tree, same data as tests 6 to 9 */
+		PackedPixelTree packed = new PackedPixelTree(2);
+		int node;
+
+		try {
+			packed.put(x[1],y[1],colors[1]);
+			packed.put(x[0],y[0],colors[0]);
+			for (int i = 2; i < 5; ++i)
+				packed.put(x[i],y[i],colors[i]);
+			node = packed.get(x[4],y[4]);
+			if (packed.size() == 5 && packed.getColor(node) == colors[4]
+					&& packed.get(50,25) == PackedPixelTree.NIL)
+				System.out.println("Test 20 passed");
+			else System.out.println("Test 20 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 20 failed");
+		}
+
+		try {
+			node = packed.successor(x[3],y[3]);
+			int before = packed.predecessor(x[0],y[0]);
+			if (packed.xCoord(node) == x[1] && packed.yCoord(node) == y[1]
+					&& packed.xCoord(before) == x[4] && packed.yCoord(before) == y[4]
+					&& packed.next(packed.smallest()) == packed.get(x[3],y[3]))
+				System.out.println("Test 21 passed");
+			else System.out.println("Test 21 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 21 failed");
+		}
+
+		try {
+			// Remove the root, which has two children, then every other pixel
+			packed.remove(x[1],y[1]);
+			boolean found = packed.get(x[1],y[1]) == PackedPixelTree.NIL;
+			for (int i = 0; i < 5; ++i)
+				if (i != 1 && packed.getColor(packed.get(x[i],y[i])) != colors[i]) found = false;
+			packed.remove(x[0],y[0]);
+			packed.remove(x[2],y[2]);
+			packed.remove(x[3],y[3]);
+			if (found && packed.size() == 1 && packed.smallest() == packed.largest()
+					&& packed.getColor(packed.getRoot()) == colors[4])
+				System.out.println("Test 22 passed");
+			else System.out.println("Test 22 failed");
+			packed.remove(x[0],y[0]);  // Delete inexistent data
+			System.out.println("Test 23 failed");
+		}
+		catch(InexistentKeyException e) {
+			System.out.println("Test 23 passed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 22 failed");
+		}
+
+		/* Tests with bulk loaded trees */
+		try {
+			// Same pixels as the large tests above, built in one pass
+			im = ImageIO.read(new File("g.jpg"));
+			width = im.getWidth();
+			int[] argb = im.getRGB(0,0,width,im.getHeight(),null,0,width);
+			tree = BinarySearchTree.fromRaster(argb,width,im.getHeight(),256);
+			res = tree.get(tree.getRoot(),new Location(3,25));
+			Pixel next = tree.successor(tree.getRoot(),new Location(1,25));
+			if (res != null && res.getColor() == im.getRGB(3,25) && next.getLocation().compareTo(new Location(1,26)) == 0
+					&& height(tree.getRoot()) == 32 - Integer.numberOfLeadingZeros(width * im.getHeight()))
+				System.out.println("Test 24 passed");
+			else System.out.println("Test 24 failed");
+		}
+		catch (IOException e) {
+			System.out.println("Error opening file. "+e.getMessage());
+			System.out.println("Test 24 aborted");
+		}
+		catch (Exception e) {
+			System.out.println("Test 24 failed");
+		}
+
+		try {
+			// Keys out of order are rejected
+			List<Pixel> unsorted = Arrays.asList(pixels[0], pixels[1]);
+			BinarySearchTree.fromSorted(unsorted.iterator());
+			System.out.println("Test 25 failed");
+		}
+		catch (IllegalArgumentException e) {
+			System.out.println("Test 25 passed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 25 failed");
+		}
+
+		/* Tests with cursors, on the tree of test 24 */
+		try {
+			// A forward walk visits the same pixels as repeated calls to successor
+			PixelCursor cursor = tree.cursor();
+			boolean same = true;
+			int count = 0;
+			Pixel expected = tree.smallest(tree.getRoot());
+			for (res = cursor.next(); res != null; res = cursor.next()) {
+				if (res != expected) same = false;
+				expected = tree.successor(tree.getRoot(),res.getLocation());
+				++count;
+			}
+			final int[] visited = new int[1];
+			tree.forEach((px, py, color) -> ++visited[0] > 0);
+			if (same && count == visited[0] && cursor.prev() == tree.largest(tree.getRoot()))
+				System.out.println("Test 26 passed");
+			else System.out.println("Test 26 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 26 failed");
+		}
+
+		try {
+			// Walk backwards from a given key
+			PixelCursor cursor = tree.cursor(new Location(4,25));
+			res = cursor.next();
+			Pixel back = cursor.prev();
+			if (res.getLocation().compareTo(new Location(4,25)) == 0
+					&& back.getLocation().compareTo(new Location(4,24)) == 0
+					&& new BinarySearchTree().cursor().next() == null)
+				System.out.println("Test 27 passed");
+			else System.out.println("Test 27 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 27 failed");
+		}
+
+		/* Test range queries, on the tree of test 24 */
+		try {
+			final int[] inside = new int[2];
+			tree.rangeQuery(new Location(3,10),new Location(7,20),(px, py, color) -> {
+				if (px >= 3 && px <= 7 && py >= 10 && py <= 20) ++inside[0];
+				else ++inside[1];
+				return true;
+			});
+			// Every pixel of g.jpg is stored, and the walk stops early when asked
+			final int[] first = new int[1];
+			boolean stopped = !tree.rangeQuery(new Location(3,10),new Location(7,20),(px, py, color) -> ++first[0] < 3);
+			if (inside[0] == 5 * 11 && inside[1] == 0 && stopped && first[0] == 3)
+				System.out.println("Test 28 passed");
+			else System.out.println("Test 28 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 28 failed");
+		}
+
+		/* Tests with order statistics */
+		try {
+			// Tree of test 24: rank and select agree with a walk in key order
+			PixelCursor cursor = tree.cursor();
+			boolean agree = sizes(tree.getRoot()) == tree.size();
+			int k = 0;
+			for (res = cursor.next(); res != null; res = cursor.next(), ++k)
+				if (tree.select(k) != res || tree.rank(res.getLocation()) != k) agree = false;
+			int column = tree.countInRange(new Location(4,0),new Location(4,Integer.MAX_VALUE));
+			final int[] visited = new int[1];
+			tree.rangeQuery(new Location(4,0),new Location(4,Integer.MAX_VALUE),(px, py, color) -> ++visited[0] > 0);
+			if (agree && k == tree.size() && tree.select(k) == null && column == visited[0]
+					&& tree.countInRange(new Location(5,0),new Location(4,0)) == 0)
+				System.out.println("Test 29 passed");
+			else System.out.println("Test 29 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 29 failed");
+		}
+
+		try {
+			// Balanced tree of test 18, after rotations and removals
+			res = balanced.select(0);
+			if (sizes(balanced.getRoot()) == n / 2 && balanced.size() == n / 2
+					&& res.getLocation().compareTo(new Location(0,1)) == 0
+					&& balanced.rank(new Location(5,3)) == 251
+					&& balanced.countInRange(new Location(5,0),new Location(5,99)) == 50)
+				System.out.println("Test 30 passed");
+			else System.out.println("Test 30 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 30 failed");
+		}
+
+		/* Tests with the persistent tree */
+		try {
+			// Insert in column order, keeping every version
+			PersistentPixelTree[] versions = new PersistentPixelTree[1001];
+			versions[0] = PersistentPixelTree.EMPTY;
+			for (int i = 0; i < 1000; ++i)
+				versions[i + 1] = versions[i].put(new Pixel(new Location(i / 10, i % 10),i));
+			boolean unchanged = true;
+			for (int i = 0; i <= 1000; i += 100) {
+				if (versions[i].size() != i) unchanged = false;
+				if (i > 0 && versions[i].get(new Location((i - 1) / 10, (i - 1) % 10)).getColor() != i - 1) unchanged = false;
+				if (i < 1000 && versions[i].get(new Location(i / 10, i % 10)) != null) unchanged = false;
+			}
+			if (unchanged && height(versions[1000].getRoot()) <= 2 * 10 + 1
+					&& versions[1000].successor(new Location(5,9)).getColor() == 60
+					&& versions[1000].predecessor(new Location(6,0)).getColor() == 59)
+				System.out.println("Test 31 passed");
+			else System.out.println("Test 31 failed");
+
+			// Removing creates a new version that shares the untouched subtrees: only the path to the
+			// smallest pixel is copied, so the right subtree of the root is the same object in both
+			PersistentPixelTree removed = versions[1000].remove(new Location(0,0));
+			BinaryNode before = versions[1000].getRoot();
+			BinaryNode after = removed.getRoot();
+			IdentityHashMap<BinaryNode,Boolean> old = new IdentityHashMap<BinaryNode,Boolean>();
+			nodes(before, old);
+			if (removed.size() == 999 && versions[1000].size() == 1000
+					&& removed.get(new Location(0,0)) == null && versions[1000].get(new Location(0,0)) != null
+					&& removed.smallest().getColor() == 1 && after != before && before.getRight() == after.getRight()
+					&& copied(after, old) <= height(before) && sizes(after) == 999)
+				System.out.println("Test 32 passed");
+			else System.out.println("Test 32 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 31 failed");
+		}
+
+		/* Test the frozen layout, on the tree of test 24 */
+		try {
+			FrozenPixelTree frozen = tree.freeze();
+			final boolean[] same = {frozen.size() == tree.size()};
+			final FrozenPixelTree lookup = frozen;
+			tree.forEach((px, py, color) -> {
+				int found = lookup.get(px, py);
+				if (found == FrozenPixelTree.NIL || lookup.getColor(found) != color) same[0] = false;
+				return true;
+			});
+			if (same[0] && !frozen.contains(50,25) && !frozen.contains(-1,0)
+					&& new BinarySearchTree().freeze().get(0,0) == FrozenPixelTree.NIL)
+				System.out.println("Test 33 passed");
+			else System.out.println("Test 33 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 33 failed");
+		}
+
+		/* Test cursors starting at or before the smallest pixel, on the tree of test 24 */
+		try {
+			Pixel first = tree.smallest(tree.getRoot());
+			PixelCursor at = tree.cursor(first.getLocation());
+			PixelCursor before = tree.cursor(new Location(-5,-5));
+			PixelCursor back = tree.cursor(first.getLocation());
+			res = at.next();
+			if (res == first && before.next() == first && back.prev() == null && back.next() == first
+					&& at.prev() == null && at.next() == first && at.next() == tree.successor(tree.getRoot(),first.getLocation()))
+				System.out.println("Test 34 passed");
+			else System.out.println("Test 34 failed");
+		}
+		catch (Exception e) {
+			System.out.println("Test 34 failed");
+		}
+
+	}
+
+
+	/* =================================================================== */
+	private static int height(BinaryNode r) {
+		/* =================================================================== */
+		/* Number of internal nodes on the longest path from r to a leaf */
+		if (r.isLeaf()) return 0;
+		return 1 + Math.max(height(r.getLeft()), height(r.getRight()));
+	}
+
+
+	/* =================================================================== */
+	private static void nodes(BinaryNode r, IdentityHashMap<BinaryNode,Boolean> found) {
+		/* =================================================================== */
+		/* Add every internal node below r to found */
+		if (r.isLeaf()) return;
+		found.put(r, Boolean.TRUE);
+		nodes(r.getLeft(), found);
+		nodes(r.getRight(), found);
+	}
+
+
+	/* =================================================================== */
+	private static int copied(BinaryNode r, IdentityHashMap<BinaryNode,Boolean> old) {
+		/* =================================================================== */
+		/* Number of internal nodes below r that are not in old; shared subtrees are not visited */
+		if (r.isLeaf() || old.containsKey(r)) return 0;
+		return 1 + copied(r.getLeft(), old) + copied(r.getRight(), old);
+	}
+
+
+	/* =================================================================== */
+	private static int sizes(BinaryNode r) {
+		/* =================================================================== */
+		/* Number of internal nodes below r, or -1 if a stored subtree size is wrong */
+		if (r.isLeaf()) return r.getSize() == 0 ? 0 : -1;
+		int left = sizes(r.getLeft());
+		int right = sizes(r.getRight());
+		if (left < 0 || right < 0 || r.getSize() != left + right + 1) return -1;
+		return left + right + 1;
+	}
+
+
+	/* =================================================================== */
+	private static int blackHeight(BinaryNode r) {
+		/* =================================================================== */
+		/* Black height of r, or -1 if r is not a valid red-black tree */
+		if (r.isLeaf()) return r.isRed() ? -1 : 1;
+		if (r.isRed() && (r.getLeft().isRed() || r.getRight().isRed())) return -1;
+		int left = blackHeight(r.getLeft());
+		int right = blackHeight(r.getRight());
+		if (left < 0 || left != right) return -1;
+		return left + (r.isRed() ? 0 : 1);
 	}
 
 
@@ -0,0 +1,248 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class moves many figures by one step each in a single tick. First the
+ * move of every figure is tested, in parallel, against the offsets all figures
+ * had at the start of the tick; no figure moves while this happens. Then, in
+ * a short sequential phase and in the order the figures were given, each
+ * figure whose move passed is tested again against the figures that already
+ * moved in this tick, and moved if it still fits. A figure that cannot move
+ * stays where it was, which the figures moving before it were tested against.
+ *
+ * The result of a tick only depends on the offsets and the steps, not on the
+ * number of threads or the order in which they run, so runs driven by the
+ * same Random seed give the same results.
+ */
+public class TickMover {
+
+	/**
+	 * Results of a move, as returned by MoveFigure; any other result is the
+	 * index of the figure hit
+	 */
+	public static final int SUCCESS = -2;
+	public static final int HIT_BORDER = -1;
+
+	/**
+	 * Figures tested by one task of the parallel phase
+	 */
+	private static final int GRAIN = 16;
+
+	/**
+	 * Declaration of instance variables
+	 */
+	private final ForkJoinPool pool; // Null to test the moves on the calling thread
+	private final int width; // Figures must stay within width x height
+	private final int height;
+
+	/**
+	 * A constructor for a mover keeping figures inside the given area
+	 * @param pool
+	 * 		threads testing the moves, or null to test them on the calling thread
+	 * @param width
+	 * 		width of the area
+	 * @param height
+	 * 		height of the area
+	 */
+	public TickMover(ForkJoinPool pool, int width, int height) {
+		this.pool = pool;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Moves the figures figs[movers[k]] by (dx[k],dy[k]), for k from 0 to
+	 * count - 1, where they fit. The offsets of the figures that move are
+	 * changed and updated in the index.
+	 * @param figs
+	 * 		the figures
+	 * @param numFigures
+	 * 		number of figures in figs
+	 * @param movers
+	 * 		indices of the figures to move, each at most once
+	 * @param count
+	 * 		number of figures to move
+	 * @param dx
+	 * 		x distance each figure moves by
+	 * @param dy
+	 * 		y distance each figure moves by
+	 * @param index
+	 * 		broad phase holding the figures, or null to test every figure
+	 * @return
+	 * 		for each figure to move, SUCCESS, HIT_BORDER or the index of the
+	 * 		figure it would hit
+	 */
+	public int[] tick(GraphicalFigure[] figs, int numFigures, int[] movers, int count, int[] dx, int[] dy,
+			BroadPhase index) {
+		Location[] before = new Location[numFigures];
+		Location[] after = new Location[count];
+		boolean[] moving = new boolean[numFigures];
+		int[][] near = new int[count][];
+		int[] results = new int[count];
+		int reach = 0;
+
+		for (int i = 0; i < numFigures; ++i) {
+			before[i] = figs[i].getOffset();
+		}
+		for (int k = 0; k < count; ++k) {
+			Location pos = before[movers[k]];
+			after[k] = new Location(pos.xCoord() + dx[k], pos.yCoord() + dy[k]);
+			moving[movers[k]] = true;
+			reach = Math.max(reach, Math.max(Math.abs(dx[k]), Math.abs(dy[k])));
+		}
+
+		//Parallel phase: every move against the offsets at the start of the tick
+		Tests tests = new Tests(figs, numFigures, movers, after, dx, dy, before, moving, reach, index, near,
+				results, 0, count);
+		if (pool == null) {
+			tests.compute();
+		}
+		else {
+			pool.invoke(tests);
+		}
+
+		//Sequential phase: the moves that passed against the moving figures near them that already moved
+		boolean[] moved = new boolean[numFigures];
+		for (int k = 0; k < count; ++k) {
+			if (results[k] != SUCCESS) {
+				continue;
+			}
+			GraphicalFigure fig = figs[movers[k]];
+			fig.setOffset(after[k]);
+			for (int i : near[k]) {
+				if (moved[i] && fig.intersects(figs[i])) {
+					results[k] = i;
+					break;
+				}
+			}
+			if (results[k] == SUCCESS) {
+				moved[movers[k]] = true;
+				if (index != null) {
+					index.update(fig);
+				}
+			}
+			else {
+				fig.setOffset(before[movers[k]]);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Task testing the moves from to to - 1 against the offsets at the start of
+	 * the tick, splitting itself until it has at most GRAIN of them. It also
+	 * lists the moving figures close enough to each figure to meet it once
+	 * both have moved.
+	 */
+	private final class Tests extends RecursiveAction {
+		private static final long serialVersionUID = 1;
+
+		private final GraphicalFigure[] figs;
+		private final int numFigures;
+		private final int[] movers;
+		private final Location[] after;
+		private final int[] dx;
+		private final int[] dy;
+		private final Location[] before;
+		private final boolean[] moving;
+		private final int reach; // Largest distance between a moving figure and one it may meet
+		private final BroadPhase index;
+		private final int[][] near;
+		private final int[] results;
+		private final int from;
+		private final int to;
+
+		Tests(GraphicalFigure[] figs, int numFigures, int[] movers, Location[] after, int[] dx, int[] dy,
+				Location[] before, boolean[] moving, int reach, BroadPhase index, int[][] near, int[] results,
+				int from, int to) {
+			this.figs = figs;
+			this.numFigures = numFigures;
+			this.movers = movers;
+			this.after = after;
+			this.dx = dx;
+			this.dy = dy;
+			this.before = before;
+			this.moving = moving;
+			this.reach = reach;
+			this.index = index;
+			this.near = near;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > GRAIN) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Tests(figs, numFigures, movers, after, dx, dy, before, moving, reach, index, near,
+						results, from, middle),
+						new Tests(figs, numFigures, movers, after, dx, dy, before, moving, reach, index, near,
+						results, middle, to));
+				return;
+			}
+			for (int k = from; k < to; ++k) {
+				results[k] = test(k);
+			}
+		}
+
+		/**
+		 * Returns the result of move k against the offsets at the start of the
+		 * tick, and lists the moving figures near it in near[k]
+		 */
+		private int test(int k) {
+			int f = movers[k];
+			GraphicalFigure fig = figs[f];
+			Location at = after[k];
+			near[k] = new int[0];
+			if (at.xCoord() < 0 || at.yCoord() < 0 || at.xCoord() > width - fig.getWidth()
+					|| at.yCoord() > height - fig.getHeight()) {
+				return HIT_BORDER;
+			}
+
+			//Figures up to reach pixels away may have moved onto the new offset
+			int[] found;
+			if (index == null) {
+				found = new int[numFigures];
+				for (int i = 0; i < numFigures; ++i) {
+					found[i] = i;
+				}
+			}
+			else {
+				found = index.query(at.xCoord() - reach, at.yCoord() - reach, fig.getWidth() + 2 * reach,
+						fig.getHeight() + 2 * reach);
+			}
+			int[] close = new int[4];
+			int numClose = 0;
+			for (int i : found) {
+				if (i == f || i >= numFigures) {
+					continue;
+				}
+				if (overlaps(fig, at, figs[i], before[i], 0)
+						&& fig.intersectsAfterMove(figs[i], at, before[i], dx[k], dy[k])) {
+					return i;
+				}
+				if (moving[i] && overlaps(fig, at, figs[i], before[i], reach)) {
+					if (numClose == close.length) {
+						close = Arrays.copyOf(close, 2 * numClose);
+					}
+					close[numClose++] = i;
+				}
+			}
+			near[k] = Arrays.copyOf(close, numClose);
+			return SUCCESS;
+		}
+
+		/**
+		 * Returns true if the rectangle of fig at the first location, grown by
+		 * margin pixels on every side, overlaps the rectangle of other at the second
+		 */
+		private boolean overlaps(GraphicalFigure fig, Location at, GraphicalFigure other, Location otherAt, int margin) {
+			return at.xCoord() - margin < otherAt.xCoord() + other.getWidth()
+					&& otherAt.xCoord() < at.xCoord() + fig.getWidth() + margin
+					&& at.yCoord() - margin < otherAt.yCoord() + other.getHeight()
+					&& otherAt.yCoord() < at.yCoord() + fig.getHeight() + margin;
+		}
+	}
+}